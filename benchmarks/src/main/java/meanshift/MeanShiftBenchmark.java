@@ -0,0 +1,137 @@
+package meanshift;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import util.DataStructureUtils;
+import util.MathUtils;
+import util.Matrix;
+
+/**
+ * Each phase of mean_shift, and the whole of it, over matrices from generateRandomMatrix. Replaces the repeated runs of
+ * script_run.sh: for instance, java -jar target/benchmarks.jar MeanShiftBenchmark -p n=2000 -p option=1,2 -p threads=8
+ * <p>
+ * The phases run on the state left by the previous ones, which is computed in the setup of each trial. The medoids of
+ * the neighborhoods are memoized by the convergence, so their benchmarks get a fresh {@link ClusteringState} before each
+ * invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class MeanShiftBenchmark {
+
+    @Param({ "1000", "2500" })
+    public int n;
+
+    @Param({ "0.5" })
+    public float quantile;
+
+    /** Number of seeds, chosen at random among the points. -1 uses all of them */
+    @Param({ "-1" })
+    public int seeds;
+
+    @Param({ "0", "1", "2" })
+    public int option;
+
+    @Param({ "4" })
+    public int threads;
+
+    @Param({ "100" })
+    public int maxIterations;
+
+    private Matrix matrix;
+    private MeanShiftClusterer clusterer;
+    private List<Integer> seedList;
+    private int[] seedArray;
+    private float bandwidth;
+    private AtomicIntegerArray intensityByCenter;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(n);
+        matrix = MeanShiftClusterer.generateRandomMatrix(n, random);
+        clusterer = new MeanShiftClusterer(new MeanShiftConfig().setOption(option).setThreads(threads).setVerbose(false));
+        seedArray = seeds > 0 && seeds < n ? DataStructureUtils.sample(n, seeds, random) : MathUtils.rangeArray(n);
+        seedList = new ArrayList<>(seedArray.length);
+        for (int seed : seedArray) {
+            seedList.add(seed);
+        }
+
+        bandwidth = clusterer.estimateBandwidth(matrix, quantile);
+        MeanShiftClusterer.Clustering c = clusterer.new Clustering(matrix);
+        c.computeIndicesOfAllNeighborsWithinRadius(seedArray, bandwidth);
+        c.computeMedoidsOfAllSeeds(seedArray);
+        intensityByCenter = c.convergeAllSeeds(seedArray, maxIterations, MeanShiftClusterer.stopThreshold(bandwidth));
+    }
+
+    /** Clustering with its neighbor index only, created again before each invocation, since medoids are memoized */
+    @State(Scope.Thread)
+    public static class ClusteringState {
+        MeanShiftClusterer.Clustering clustering;
+
+        @Setup(Level.Invocation)
+        public void setup(MeanShiftBenchmark benchmark) {
+            clustering = benchmark.clusterer.new Clustering(benchmark.matrix);
+            clustering.computeIndicesOfAllNeighborsWithinRadius(benchmark.seedArray, benchmark.bandwidth);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        clusterer.close();
+    }
+
+    @Benchmark
+    public float bandwidth() {
+        return clusterer.estimateBandwidth(matrix, quantile);
+    }
+
+    @Benchmark
+    public Object neighbors() {
+        MeanShiftClusterer.Clustering c = clusterer.new Clustering(matrix);
+        c.computeIndicesOfAllNeighborsWithinRadius(seedArray, bandwidth);
+        return c;
+    }
+
+    /** Medoids of the neighborhoods of the seeds, the first step of every climb */
+    @Benchmark
+    public Object medoids(ClusteringState state) {
+        state.clustering.computeMedoidsOfAllSeeds(seedArray);
+        return state.clustering;
+    }
+
+    /** Climbs of all seeds, including their medoid searches, as the convergence of mean_shift */
+    @Benchmark
+    public AtomicIntegerArray convergence(ClusteringState state) {
+        state.clustering.computeMedoidsOfAllSeeds(seedArray);
+        return state.clustering.convergeAllSeeds(seedArray, maxIterations, MeanShiftClusterer.stopThreshold(bandwidth));
+    }
+
+    @Benchmark
+    public List<Integer> postProcessing() {
+        return clusterer.removeNearDuplicateCenters(matrix, bandwidth, intensityByCenter);
+    }
+
+    @Benchmark
+    public List<Integer> meanShift() {
+        return clusterer.mean_shift(matrix, seedList, quantile, maxIterations);
+    }
+}
@@ -0,0 +1,92 @@
+package meanshift;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.Matrix;
+import util.storage.StorageType;
+
+/**
+ * Hot path of the convergence: line sums over a neighborhood, and the medoid of a neighborhood.
+ * Run it with the GC profiler to check allocations, e.g. java -jar target/benchmarks.jar MedoidBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MedoidBenchmark {
+
+    @Param({ "2000" })
+    public int n;
+
+    /** Fraction of the points in the neighborhood */
+    @Param({ "0.1", "0.5" })
+    public float density;
+
+    @Param({ "HEAP", "OFF_HEAP" })
+    public StorageType storage;
+
+    private Matrix matrix;
+    private int[] neighborhood;
+    private List<Integer> boxedNeighborhood;
+    private int line;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(n);
+        matrix = new Matrix(n, n, storage);
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                float v = random.nextFloat();
+                matrix.setValue(i, j, v);
+                matrix.setValue(j, i, v);
+            }
+        }
+        boxedNeighborhood = new ArrayList<>();
+        for (int j = 0; j < n; j++) {
+            if (random.nextFloat() < density) {
+                boxedNeighborhood.add(j);
+            }
+        }
+        neighborhood = new int[boxedNeighborhood.size()];
+        for (int k = 0; k < neighborhood.length; k++) {
+            neighborhood[k] = boxedNeighborhood.get(k);
+        }
+        line = neighborhood[neighborhood.length / 2];
+    }
+
+    @Benchmark
+    public float lineSumBoxed() {
+        return matrix.getLineSum(line, boxedNeighborhood);
+    }
+
+    @Benchmark
+    public float lineSum() {
+        return matrix.getLineSum(line, neighborhood, 0, neighborhood.length);
+    }
+
+    @Benchmark
+    public int medoid() {
+        return matrix.getMedoid(neighborhood, 0, neighborhood.length);
+    }
+
+    /** Same medoid, abandoning the sums which cannot win */
+    @Benchmark
+    public int prunedMedoid() {
+        return matrix.getMedoid(neighborhood, 0, neighborhood.length, line);
+    }
+}
@@ -0,0 +1,75 @@
+package meanshift;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import util.Matrix;
+import util.SymmetricMatrix;
+
+/**
+ * Per call overhead of small clusterings, as run by a service: one long-lived clusterer, reused by every call, against
+ * a clusterer, and so a pool, created for each call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmallClusteringBenchmark {
+
+    @Param({ "32", "256" })
+    public int n;
+
+    @Param({ "0", "1", "2" })
+    public int option;
+
+    @Param({ "4" })
+    public int threads;
+
+    private Matrix matrix;
+    private MeanShiftConfig config;
+    private MeanShiftClusterer clusterer;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(n);
+        matrix = new SymmetricMatrix(n);
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                matrix.setValue(i, j, random.nextFloat());
+            }
+        }
+        config = new MeanShiftConfig().setOption(option).setThreads(threads).setVerbose(false);
+        clusterer = new MeanShiftClusterer(config);
+    }
+
+    @TearDown
+    public void tearDown() {
+        clusterer.close();
+    }
+
+    @Benchmark
+    public List<Integer> reusedClusterer() {
+        return clusterer.mean_shift(matrix, -1, 0.3F, 100);
+    }
+
+    @Benchmark
+    public List<Integer> clustererPerCall() {
+        try (MeanShiftClusterer fresh = new MeanShiftClusterer(config)) {
+            return fresh.mean_shift(matrix, -1, 0.3F, 100);
+        }
+    }
+}
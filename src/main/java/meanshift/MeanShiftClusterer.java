@@ -0,0 +1,966 @@
+package meanshift;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+import util.DataStructureUtils;
+import util.DistanceMetric;
+import util.FloatKernels;
+import util.KdTree;
+import util.MathUtils;
+import util.Matrix;
+import util.NeighborIndex;
+import util.SymmetricMatrix;
+import util.TimeWatcher;
+import util.VectorDistances;
+import util.parallel.Buffers;
+import util.parallel.Parallel;
+import util.storage.StorageType;
+
+/**
+ * Perform MeanShift Clustering of data using a flat kernel.
+ * Returns indices of samples from input matrix, where each index relates to a sample that was considered a cluster.
+ * <p>
+ * A clusterer is meant to be created once and reused: its settings are fixed at creation, and its thread pool lives
+ * until it is closed. All the state of a clustering belongs to its call of mean_shift, so one clusterer can run many
+ * clusterings at the same time.
+ */
+public class MeanShiftClusterer implements AutoCloseable {
+
+    private final MeanShiftConfig config;
+
+    /** Pool of the parallel options, null for the serial one */
+    private final ExecutorService executorService;
+    /** Whether executorService was created by this clusterer, and then must be shut down by it */
+    private final boolean ownsExecutor;
+
+    /** Threshold scans of the lines, vectorized when possible */
+    private static final FloatKernels KERNELS = FloatKernels.get();
+
+    /** Seeds whose lines are read in a row by a task, when streaming neighbors from disk */
+    private static final int STREAM_CHUNK_SEEDS = 64;
+
+    /**
+     * Neighbors, over all the seeds of a batch, whose medoids are searched in one pass over the lines, when streaming
+     * medoids from disk. Each one takes about 16 bytes while its batch is searched.
+     */
+    private static final int MEDOID_BATCH_NEIGHBORS = 1 << 24;
+
+    /** Points from which the bandwidth is estimated in matrix-free mode, when no sample size is configured */
+    public static final int MATRIX_FREE_BANDWIDTH_SAMPLE_SIZE = 1000;
+
+    private final List<MeanShiftListener> listeners = new CopyOnWriteArrayList<>();
+
+    /** Creates a clusterer with the default settings, see {@link MeanShiftConfig} */
+    public MeanShiftClusterer() {
+        this(new MeanShiftConfig());
+    }
+
+    /** Creates a clusterer which runs the parallel options in its own pool, of config.getThreads() threads */
+    public MeanShiftClusterer(MeanShiftConfig config) {
+        this(config, config.getOption() == MeanShiftConfig.SERIAL ? null : new ForkJoinPool(config.getThreads()), true);
+    }
+
+    /**
+     * Creates a clusterer which runs the parallel options in executorService, which is not shut down by {@link #close()}.
+     * Option 1 runs parallel streams, which need a ForkJoinPool; option 2 accepts any executor.
+     */
+    public MeanShiftClusterer(MeanShiftConfig config, ExecutorService executorService) {
+        this(config, executorService, false);
+    }
+
+    private MeanShiftClusterer(MeanShiftConfig config, ExecutorService executorService, boolean ownsExecutor) {
+        this.config = new MeanShiftConfig(config);
+        if (config.getOption() != MeanShiftConfig.SERIAL && executorService == null) {
+            throw new IllegalArgumentException("Option " + config.getOption() + " needs an executor");
+        }
+        if (config.getOption() == MeanShiftConfig.PARALLEL_STREAMS && !(executorService instanceof ForkJoinPool)) {
+            throw new IllegalArgumentException("Option 1 runs parallel streams, which need a ForkJoinPool");
+        }
+        this.executorService = executorService;
+        this.ownsExecutor = ownsExecutor;
+        if (config.getJmxName() != null) {
+            MeanShiftStats stats = new MeanShiftStats();
+            stats.register(config.getJmxName());
+            addListener(stats);
+        }
+    }
+
+    /** Shuts down the pool created by this clusterer, if any, and unregisters its MBean. A given executor is left running */
+    @Override
+    public void close() {
+        if (ownsExecutor && executorService != null) {
+            executorService.shutdown();
+        }
+        if (config.getJmxName() != null) {
+            MeanShiftStats.unregister(config.getJmxName());
+        }
+    }
+
+    /** Pool of the parallel options, also used to parse the matrices loaded for this clusterer, or null for the serial option */
+    ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    /** Adds a listener of the measures of each clustering. They are only collected while there is some listener */
+    public void addListener(MeanShiftListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MeanShiftListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Clusters raw feature vectors, all of the same length, under metric. Their distances are computed by the pool of
+     * this clusterer into a SymmetricMatrix of the given storage type.
+     * <p>
+     * If storageType is null, it runs matrix-free, for more points than a matrix could hold: distances are computed on
+     * the fly each time they are read, neighbors are found by a {@link KdTree}, and the bandwidth is estimated from a
+     * sample of the points (see {@link MeanShiftConfig#setBandwidthSampleSize(int)}), of
+     * {@link #MATRIX_FREE_BANDWIDTH_SAMPLE_SIZE} points unless set. Memory then grows as N * D plus the neighbor lists.
+     * See {@link #mean_shift(Matrix, int, float, int)} for the other parameters.
+     */
+    public List<Integer> mean_shift(float[][] vectors, DistanceMetric metric, StorageType storageType, int maxSeeds, float quantile, int maxIterations) {
+        VectorDistances distances = new VectorDistances(vectors, metric);
+        TimeWatcher timeWatcher = new TimeWatcher().start();
+        if (storageType == null) {
+            KdTree tree = new KdTree(distances);
+            log("Time to build the KD-tree: " + timeWatcher.getTime());
+            return mean_shift(distances.onTheFly(), tree, seedList(distances.size(), maxSeeds), quantile, maxIterations);
+        }
+        Matrix distanceMatrix = distances.materialize(storageType, executorService);
+        log("Time to compute distances: " + timeWatcher.getTime());
+        try {
+            return mean_shift(distanceMatrix, maxSeeds, quantile, maxIterations);
+        } finally {
+            distanceMatrix.destroyResources();
+        }
+    }
+
+    /**
+     * @param distanceMatrix
+     * @param maxSeeds        the maximum number of seeds. Use -1 to use all samples as seeds.
+     * @param quantile        should be between [0, 1]. 0.5 means that the median of all pairwise distances is used. In doubt, use around 0.3.
+     * @param maxIterations   the maximum number of iteration steps used by seed convergence. In doubt, use 300.
+     * @return
+     */
+    public List<Integer> mean_shift(Matrix distanceMatrix, int maxSeeds, float quantile, int maxIterations) {
+        return mean_shift(distanceMatrix, seedList(distanceMatrix.getLineNumber(), maxSeeds), quantile, maxIterations);
+    }
+
+    /** All the points, or maxSeeds of them at random, if it is positive and lower than their number */
+    List<Integer> seedList(int numPoints, int maxSeeds) {
+        List<Integer> seeds = MathUtils.range(numPoints);
+        if (maxSeeds > 0 && maxSeeds < seeds.size()) {
+            DataStructureUtils.reduceRandomly(seeds, maxSeeds);
+            log(seeds.size()+" seeds to be used, from " + numPoints);
+        }
+        return seeds;
+    }
+
+    public List<Integer> mean_shift(Matrix distanceMatrix, List<Integer> seedList, final float quantile, final int maxIterations) {
+        return mean_shift(distanceMatrix, null, seedList, quantile, maxIterations);
+    }
+
+    /** Same as {@link #mean_shift(Matrix, List, float, int)}, finding neighbors with tree, if not null, instead of reading lines of the matrix */
+    private List<Integer> mean_shift(Matrix distanceMatrix, KdTree tree, List<Integer> seedList, final float quantile, final int maxIterations) {
+    	//measures are only taken for listeners, apart from the times, which cost next to nothing
+    	final MeanShiftMetrics metrics = listeners.isEmpty() ? null : new MeanShiftMetrics();
+    	Map<Long, Long> allocatedBytes = metrics == null ? null : MeanShiftMetrics.sampleAllocatedBytes();
+    	TimeWatcher totalTime = new TimeWatcher().start();
+    	TimeWatcher phaseTime = new TimeWatcher().start();
+
+    	final int[] seeds = seedList.stream().mapToInt(Integer::intValue).toArray();
+
+    	int sampleSize = config.getBandwidthSampleSize();
+    	if (tree != null && sampleSize <= 0) {
+    		sampleSize = MATRIX_FREE_BANDWIDTH_SAMPLE_SIZE;
+    	}
+    	final BandwidthEstimate estimate = estimateBandwidth(distanceMatrix, quantile, sampleSize);
+    	final float bandwidth = estimate.bandwidth;
+    	long bandwidthNanos = phaseTime.getTimeInNanoSecs();
+
+        //intensity of each point where a seed converged, or 0 for the other points
+        final AtomicIntegerArray intensityByCenter;
+        {
+            double stop_thresh = stopThreshold(bandwidth);
+
+            Clustering clustering = new Clustering(distanceMatrix, tree);
+            phaseTime.start();
+        	clustering.computeIndicesOfAllNeighborsWithinRadius(seeds, bandwidth);
+        	long neighborsNanos = phaseTime.getTimeInNanoSecs();
+        	phaseTime.start();
+        	clustering.computeMedoidsOfAllSeeds(seeds);
+        	long medoidsNanos = phaseTime.getTimeInNanoSecs();
+
+            // For each seed, climb gradient until convergence or max_iterations:
+            int[] iterationsBySeed = metrics == null ? null : new int[seeds.length];
+            boolean[] stoppedOnLimitBySeed = metrics == null ? null : new boolean[seeds.length];
+            phaseTime.start();
+            intensityByCenter = clustering.convergeAllSeeds(seeds, maxIterations, stop_thresh, iterationsBySeed, stoppedOnLimitBySeed);
+
+            if (metrics != null) {
+                metrics.setConvergenceNanos(phaseTime.getTimeInNanoSecs());
+                metrics.setPoints(distanceMatrix.getLineNumber());
+                metrics.setSeeds(seeds.length);
+                metrics.setBandwidth(bandwidth, estimate.margin, bandwidthNanos);
+                metrics.setNeighborsNanos(neighborsNanos);
+                metrics.setMedoidsNanos(medoidsNanos);
+                metrics.setIterations(iterationsBySeed, stoppedOnLimitBySeed);
+                metrics.setNeighborhoodSizes(clustering.getNeighborhoodSizes(seeds));
+            }
+        }
+
+        phaseTime.start();
+        List<Integer> centers = removeNearDuplicateCenters(distanceMatrix, bandwidth, intensityByCenter);
+
+        if (metrics != null) {
+            metrics.setPostProcessingNanos(phaseTime.getTimeInNanoSecs());
+            metrics.setTotalNanos(totalTime.getTimeInNanoSecs());
+            int centersBeforeSuppression = 0;
+            for (int point = 0; point < intensityByCenter.length(); point++) {
+                if (intensityByCenter.get(point) > 0) {
+                    centersBeforeSuppression++;
+                }
+            }
+            metrics.setCenters(centersBeforeSuppression, centers.size());
+            if (allocatedBytes != null) {
+                metrics.setAllocatedBytes(MeanShiftMetrics.getAllocatedBytesSince(allocatedBytes));
+            }
+            for (MeanShiftListener listener : listeners) {
+                listener.clusteringFinished(metrics);
+            }
+        }
+        return centers;
+    }
+
+    /** Distance under which a mean has converged: a climb stops once its step is shorter */
+    static double stopThreshold(float bandwidth) {
+        return 1e-3 * bandwidth;
+    }
+
+    /**
+     * POST PROCESSING: remove near duplicate points
+     * If the distance between two kernels is less than the bandwidth,
+     * then we have to remove one because it is a duplicate: remove the one with fewer points.
+     */
+    List<Integer> removeNearDuplicateCenters(Matrix distanceMatrix, float bandwidth, AtomicIntegerArray intensityByCenter) {
+        TimeWatcher timeWatcher = new TimeWatcher().start();
+        int[] centerArray = getCentersSortedByIntensity(intensityByCenter);
+
+        // the centers near to each center are found in parallel, and then suppressed serially, in order of intensity
+        BitSet[] neighborCenters = new BitSet[centerArray.length];
+        forEachIndex(centerArray.length, i -> {
+        	neighborCenters[i] = indicesOfNeighborsWithinRadius(centerArray[i], distanceMatrix, bandwidth, centerArray);
+        });
+        log("Time to compare centers: "+timeWatcher.getTime());
+
+        BitSet unique = new BitSet(centerArray.length);
+        unique.set(0, centerArray.length);
+        for (int i = unique.nextSetBit(0); i >= 0; i = unique.nextSetBit(i + 1)) {
+        	unique.andNot(neighborCenters[i]);
+        	unique.set(i); // leave the current point as unique
+        }
+        List<Integer> centers = new ArrayList<>(unique.cardinality());
+        for (int i = unique.nextSetBit(0); i >= 0; i = unique.nextSetBit(i + 1)) {
+        	centers.add(centerArray[i]);
+        }
+        log("post processing finished after "+timeWatcher.getTime());
+
+        return centers;
+    }
+
+    float estimateBandwidth(Matrix distanceMatrix, double quantile) {
+        return estimateBandwidth(distanceMatrix, quantile, config.getBandwidthSampleSize()).bandwidth;
+    }
+
+    /** Bandwidth, and the half width of its 95% confidence interval, zero when it is computed from all the lines */
+    static final class BandwidthEstimate {
+        final float bandwidth;
+        final float margin;
+
+        BandwidthEstimate(float bandwidth, float margin) {
+            this.bandwidth = bandwidth;
+            this.margin = margin;
+        }
+    }
+
+    /** Estimates the bandwidth from sampleSize lines, or from all of them if it is not positive */
+    BandwidthEstimate estimateBandwidth(Matrix distanceMatrix, double quantile, int sampleSize) {
+        TimeWatcher timeWatcher = new TimeWatcher().start();
+
+        final int numLines = distanceMatrix.getLineNumber();
+
+        int knn = (int) (numLines * quantile);
+
+        if (sampleSize > 0 && sampleSize < numLines) {
+        	return estimateBandwidthBySampling(distanceMatrix, knn, sampleSize, timeWatcher);
+        }
+
+        //each task selects the kth lowest value in its own copy of the line
+        final Buffers<float[]> lines = new Buffers<>(() -> new float[distanceMatrix.getColumnNumber()]);
+
+        double sumDistanceKNearestNeighbor = sumOverIndices(numLines, i -> {
+            float[] line = lines.take();
+            float distance = distanceMatrix.getKthLowestValueInLine(i, knn, line);
+            lines.give(line);
+            return distance;
+        });
+        float bandwidth = (float) (sumDistanceKNearestNeighbor / numLines);
+
+        log("Bandwidth estimated: "+bandwidth+". Elapsed time: "+timeWatcher.getTime());
+
+        return new BandwidthEstimate(bandwidth, 0);
+    }
+
+    /**
+     * Estimates the bandwidth from the kth nearest neighbor distances of sampleSize lines only, chosen at random
+     * without replacement, along with the 95% confidence interval of the mean, with the finite population correction.
+     */
+    private BandwidthEstimate estimateBandwidthBySampling(Matrix distanceMatrix, int knn, int sampleSize, TimeWatcher timeWatcher) {
+    	final int numLines = distanceMatrix.getLineNumber();
+    	final int[] sample = DataStructureUtils.sample(numLines, sampleSize, new Random(config.getBandwidthSampleSeed()));
+    	if (distanceMatrix.isOutOfCore()) {
+    		Arrays.sort(sample); // lines are then read in the order of the file
+    	}
+    	final float[] distances = new float[sampleSize];
+    	final Buffers<float[]> lines = new Buffers<>(() -> new float[distanceMatrix.getColumnNumber()]);
+    	forEachIndex(sampleSize, k -> {
+    		float[] line = lines.take();
+    		distances[k] = distanceMatrix.getKthLowestValueInLine(sample[k], knn, line);
+    		lines.give(line);
+    	});
+
+    	double sum = 0;
+    	for (float distance : distances) {
+    		sum += distance;
+    	}
+    	double mean = sum / sampleSize;
+    	double squaredDeviations = 0;
+    	for (float distance : distances) {
+    		squaredDeviations += (distance - mean) * (distance - mean);
+    	}
+    	double standardDeviation = sampleSize > 1 ? Math.sqrt(squaredDeviations / (sampleSize - 1)) : 0;
+    	double finitePopulationCorrection = Math.sqrt((double) (numLines - sampleSize) / (numLines - 1));
+    	double margin = 1.96 * standardDeviation / Math.sqrt(sampleSize) * finitePopulationCorrection;
+
+    	float bandwidth = (float) mean;
+    	log("Bandwidth estimated from "+sampleSize+" of "+numLines+" lines: "+bandwidth
+    		+", 95% confidence interval ["+(float) (mean - margin)+", "+(float) (mean + margin)+"]. Elapsed time: "+timeWatcher.getTime());
+
+    	return new BandwidthEstimate(bandwidth, (float) margin);
+    }
+
+    /** Returns the points with some intensity, by decreasing intensity, and by increasing index for the same intensity */
+    private static int[] getCentersSortedByIntensity(AtomicIntegerArray intensityByCenter){
+        int numCenters = 0;
+        long[] keys = new long[intensityByCenter.length()];
+        for (int point = 0; point < keys.length; point++) {
+            int intensity = intensityByCenter.get(point);
+            if(intensity > 0){
+                keys[numCenters++] = (long) (Integer.MAX_VALUE - intensity) << 32 | point;
+            }
+        }
+        Arrays.sort(keys, 0, numCenters);
+        int[] centers = new int[numCenters];
+        for (int i = 0; i < numCenters; i++) {
+            centers[i] = (int) keys[i];
+        }
+        return centers;
+    }
+
+    /**
+     * Sums term(i) for each index from 0 to n - 1, serially or in parallel, according to the option. The parallel options
+     * run the loop of Parallel.sum on the executor of the clusterer, and are reproducible as set by the summation.
+     */
+    private double sumOverIndices(int n, IntToDoubleFunction term){
+    	return Parallel.sum(0, n, config.getOption()==0 ? null : executorService, config.getSummation(), term);
+    }
+
+    /** Applies action over each seed, serially or in parallel, according to the option */
+    private void forEachSeed(int[] seeds, IntConsumer action){
+    	forEachIndex(seeds.length, k -> action.accept(seeds[k]));
+    }
+
+    /** Applies action over each index from 0 to n - 1, serially or in parallel, according to the option. Indices are never boxed */
+    private void forEachIndex(int n, IntConsumer action){
+		if (config.getOption()==0) {
+    		for (int i = 0; i < n; i++) {
+    			action.accept(i);
+    		}
+    	} else if(config.getOption()==1){
+    		//a parallel stream runs in the pool of the task which starts it
+		ForkJoinPool pool = (ForkJoinPool) executorService;
+		if (ForkJoinTask.getPool() == pool) {
+			IntStream.range(0, n).parallel().forEach(action);
+		} else {
+			pool.invoke(ForkJoinTask.adapt(() -> IntStream.range(0, n).parallel().forEach(action)));
+		}
+    	}else{
+    		Parallel.For(0, n, executorService, config.getSchedule(), config.getChunkSize(), (from, to) -> {
+    			for (int i = from; i < to; i++) {
+    				action.accept(i);
+    			}
+    		});
+    	}
+    }
+
+    /**
+     * Finds the neighbors within a given radius of a point. Returns the set of indices of the neighbors.
+     * The points compared to the point are those from 'points' argument.
+     */
+    private BitSet indicesOfNeighborsWithinRadius(int elementIdx, Matrix distanceMatrix, float radius, int[] points){
+        BitSet indicesOfValuesLowerThanRadius = new BitSet(points.length);
+        for(int idx = 0; idx < points.length; idx++) {
+            if(distanceMatrix.getValue(elementIdx, points[idx]) < radius){
+                indicesOfValuesLowerThanRadius.set(idx);
+            }
+        }
+        return indicesOfValuesLowerThanRadius;
+    }
+
+    void log(String message){
+        if(config.isVerbose()){
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * State of one clustering, which is only shared by the threads of its call to mean_shift.
+     * Its phases are package-private, for the benchmarks.
+     */
+    class Clustering {
+
+        private final Matrix distanceMatrix;
+
+        /** Index of the vectors behind distanceMatrix in matrix-free mode, or null */
+        private final KdTree tree;
+
+        private NeighborIndex neighborsByElement;
+
+        /** Medoid of the neighborhood of each point, or -1 while it is not computed */
+        private int[] medoidByElement;
+
+        /** Whether medoids are searched with the blocked evaluation, and the buffers of the tasks for their line sums */
+        private boolean blockedMedoids;
+        private Buffers<float[]> neighborhoodSums;
+
+        /** Buffers of the tasks for the neighbors of a bitset row, decoded into a list for the medoid search */
+        private Buffers<int[]> decodedNeighbors;
+
+        /** Distance from the medoid of each seed to it, when streamed from disk along with the medoids, or NaN. Null otherwise */
+        private float[] stepByElement;
+
+        Clustering(Matrix distanceMatrix) {
+            this(distanceMatrix, null);
+        }
+
+        Clustering(Matrix distanceMatrix, KdTree tree) {
+            this.distanceMatrix = distanceMatrix;
+            this.tree = tree;
+        }
+
+        /** Climbs from each seed until convergence or max_iterations, returning the intensity of each point where a seed converged */
+        AtomicIntegerArray convergeAllSeeds(int[] seeds, int maxIterations, double stop_thresh) {
+            return convergeAllSeeds(seeds, maxIterations, stop_thresh, null, null);
+        }
+
+        /**
+         * Same as {@link #convergeAllSeeds(int[], int, double)}, also keeping the iterations of each seed, and whether it
+         * stopped by reaching maxIterations before converging, if iterationsBySeed and stoppedOnLimitBySeed are not null
+         */
+        AtomicIntegerArray convergeAllSeeds(int[] seeds, int maxIterations, double stop_thresh, int[] iterationsBySeed, boolean[] stoppedOnLimitBySeed) {
+            TimeWatcher timeWatcher = new TimeWatcher().start();
+            AtomicIntegerArray intensityByCenter = new AtomicIntegerArray(distanceMatrix.getLineNumber());
+            if (iterationsBySeed == null) {
+                forEachSeed(seeds, seed -> converge(maxIterations, stop_thresh, intensityByCenter, seed, null, 0));
+            } else {
+                forEachIndex(seeds.length, k -> iterationsBySeed[k] = converge(maxIterations, stop_thresh, intensityByCenter, seeds[k], stoppedOnLimitBySeed, k));
+            }
+            log("convergence finished after "+timeWatcher.getTime());
+            return intensityByCenter;
+        }
+
+        /** Size of the neighborhood of each seed */
+        int[] getNeighborhoodSizes(int[] seeds) {
+            int[] sizes = new int[seeds.length];
+            for (int k = 0; k < seeds.length; k++) {
+                sizes[k] = neighborsByElement.size(seeds[k]);
+            }
+            return sizes;
+        }
+
+        /** Neighbors of each seed, once computed */
+        NeighborIndex getNeighborIndex() {
+            return neighborsByElement;
+        }
+
+        /**
+         * Climbs from seed, returning the number of completed iterations, and setting stoppedOnLimit[k], if stoppedOnLimit
+         * is not null, when the climb stopped by reaching max_iterations before converging
+         */
+        private int converge(int max_iterations, double stop_thresh, AtomicIntegerArray intensityByCenter, int seed, boolean[] stoppedOnLimit, int k)
+        {
+            int completed_iterations = 0;
+            while(true){
+                // Find mean of points within bandwidth
+                int intensity = neighborsByElement.size(seed);
+                if(intensity == 0){
+                    break; // Depending on seeding strategy this condition may occur
+                }
+
+                int old_mean = seed; // save the old mean
+                seed = getMeanPoint(seed);
+
+                // If converged or at max_iterations, add the cluster
+                float step = stepByElement == null || Float.isNaN(stepByElement[old_mean]) ? distanceMatrix.getValue(seed, old_mean) : stepByElement[old_mean];
+                boolean converged = step < stop_thresh;
+                if(converged || completed_iterations == max_iterations){
+                    if(!converged && stoppedOnLimit != null){
+                        stoppedOnLimit[k] = true;
+                    }
+                    // keeps the maximum intensity: no write at all once it is reached, and a retry only if another seed raised it meanwhile
+                    int previousIntensity;
+                    while((previousIntensity = intensityByCenter.get(seed)) < intensity
+                        && !intensityByCenter.compareAndSet(seed, previousIntensity, intensity)){
+                    }
+                    break;
+                }
+                completed_iterations++;
+            }
+            return completed_iterations;
+        }
+
+        /**
+         * Finds, for each seed, the indices of the points within a given radius of it, and keeps them in neighborsByElement.
+         * Rows are built in two passes over the seeds: the first counts the neighbors of each seed, so that the second
+         * can write them directly at their place in the index.
+         */
+        void computeIndicesOfAllNeighborsWithinRadius(int[] seeds, float bandwidth){
+        	if (tree != null) {
+        		searchNeighborsOfAllSeeds(seeds, bandwidth);
+        		return;
+        	}
+        	if (distanceMatrix.isOutOfCore()) {
+        		streamNeighborsOfAllSeeds(seeds, bandwidth);
+        		return;
+        	}
+        	TimeWatcher timeWatcher = new TimeWatcher().start();
+        	final int pointsLength = distanceMatrix.getColumnNumber();
+        	final Buffers<float[]> lines = new Buffers<>(() -> new float[pointsLength]);
+
+        	int[] counts = new int[distanceMatrix.getLineNumber() + 1];
+        	forEachSeed(seeds, seed -> {
+        		float[] line = lines.take();
+        		counts[seed + 1] = KERNELS.countBelow(distanceMatrix.getValues(seed, line), pointsLength, bandwidth);
+        		lines.give(line);
+        	});
+
+        	neighborsByElement = NeighborIndex.fromCounts(counts, config.isBitsetNeighbors());
+        	forEachSeed(seeds, seed -> {
+        		float[] line = lines.take();
+        		neighborsByElement.fillRow(seed, distanceMatrix.getValues(seed, line), pointsLength, bandwidth);
+        		lines.give(line);
+        	});
+    		logNeighbors("Time to compute neighbors: "+timeWatcher.getTime());
+        }
+
+        /**
+         * Same as {@link #computeIndicesOfAllNeighborsWithinRadius}, for a matrix paged in from disk: each line is read
+         * once, instead of once per pass. Seeds are sorted and taken in chunks, whose lines are read in increasing order,
+         * and whose neighbors are kept apart until the index is built, then copied row by row.
+         */
+        private void streamNeighborsOfAllSeeds(int[] seeds, float bandwidth){
+        	TimeWatcher timeWatcher = new TimeWatcher().start();
+        	final int pointsLength = distanceMatrix.getColumnNumber();
+        	final int[] sorted = seeds.clone();
+        	Arrays.sort(sorted);
+        	final int chunks = (sorted.length + STREAM_CHUNK_SEEDS - 1) / STREAM_CHUNK_SEEDS;
+        	final int[][] neighborsByChunk = new int[chunks][];
+        	final int[][] countsByChunk = new int[chunks][];
+
+        	int[] counts = new int[distanceMatrix.getLineNumber() + 1];
+        	forEachIndex(chunks, c -> {
+        		float[] line = new float[pointsLength];
+        		int[] chunkNeighbors = new int[1024];
+        		int[] chunkCounts = new int[Math.min(sorted.length, (c + 1) * STREAM_CHUNK_SEEDS) - c * STREAM_CHUNK_SEEDS];
+        		int size = 0;
+        		for (int k = c * STREAM_CHUNK_SEEDS; k < Math.min(sorted.length, (c + 1) * STREAM_CHUNK_SEEDS); k++) {
+        			distanceMatrix.getValues(sorted[k], line);
+        			int count = KERNELS.countBelow(line, pointsLength, bandwidth);
+        			if (size + count > chunkNeighbors.length) {
+        				chunkNeighbors = Arrays.copyOf(chunkNeighbors, Math.max(size + count, 2 * chunkNeighbors.length));
+        			}
+        			size += KERNELS.indicesBelow(line, pointsLength, bandwidth, chunkNeighbors, size);
+        			counts[sorted[k] + 1] = count;
+        			chunkCounts[k - c * STREAM_CHUNK_SEEDS] = count;
+        		}
+        		neighborsByChunk[c] = Arrays.copyOf(chunkNeighbors, size);
+        		countsByChunk[c] = chunkCounts;
+        	});
+
+        	neighborsByElement = NeighborIndex.fromCounts(counts, config.isBitsetNeighbors());
+        	forEachIndex(chunks, c -> {
+        		int from = 0;
+        		for (int k = 0; k < countsByChunk[c].length; k++) {
+        			neighborsByElement.setRow(sorted[c * STREAM_CHUNK_SEEDS + k], neighborsByChunk[c], from, from + countsByChunk[c][k]);
+        			from += countsByChunk[c][k];
+        		}
+        		neighborsByChunk[c] = null;
+        	});
+    		logNeighbors("Time to stream neighbors from disk: "+timeWatcher.getTime());
+        }
+
+        /**
+         * Same as {@link #computeIndicesOfAllNeighborsWithinRadius}, in matrix-free mode, searching the tree instead of
+         * reading lines. It also takes two passes, so that the neighbor lists are only kept once, in the index.
+         */
+        private void searchNeighborsOfAllSeeds(int[] seeds, float bandwidth){
+        	TimeWatcher timeWatcher = new TimeWatcher().start();
+        	int[] counts = new int[distanceMatrix.getLineNumber() + 1];
+        	forEachSeed(seeds, seed -> counts[seed + 1] = tree.countWithinRadius(seed, bandwidth));
+
+        	neighborsByElement = NeighborIndex.fromCounts(counts, config.isBitsetNeighbors());
+        	final int[] neighbors = neighborsByElement.getNeighbors();
+        	forEachSeed(seeds, seed -> {
+        		if (neighborsByElement.isDense(seed)) {
+        			int[] found = tree.neighborsWithinRadius(seed, bandwidth);
+        			neighborsByElement.setRow(seed, found, 0, found.length);
+        		} else {
+        			tree.neighborsWithinRadius(seed, bandwidth, neighbors, neighborsByElement.start(seed));
+        		}
+        	});
+    		logNeighbors("Time to search neighbors in the KD-tree: "+timeWatcher.getTime());
+        }
+
+        private void logNeighbors(String message){
+        	log(message+" ("+neighborsByElement.getDenseRowNumber()+" neighborhoods as bitsets)");
+        }
+
+        /**
+         * Computes up front, in parallel, the medoid of the neighborhood of every seed, so that the steps of the convergence
+         * mostly become lookups. It is no extra work: the first step of each seed needs the medoid of its own neighborhood.
+         */
+        void computeMedoidsOfAllSeeds(int[] seeds){
+        	TimeWatcher timeWatcher = new TimeWatcher().start();
+        	final int numPoints = distanceMatrix.getLineNumber();
+        	medoidByElement = new int[numPoints];
+        	Arrays.fill(medoidByElement, -1);
+        	blockedMedoids = config.isBlockedMedoids();
+        	neighborhoodSums = new Buffers<>(() -> new float[numPoints]);
+        	decodedNeighbors = new Buffers<>(() -> new int[numPoints]);
+        	if (distanceMatrix.isOutOfCore()) {
+        		streamMedoidsOfAllSeeds(seeds);
+        	} else {
+        		forEachSeed(seeds, seed -> getMeanPoint(seed));
+        	}
+        	log("Time to compute medoids: "+timeWatcher.getTime());
+        }
+
+        /**
+         * Same as {@link #computeMedoidsOfAllSeeds}, for a matrix paged in from disk, where each medoid search would read
+         * the lines of its neighborhood in random order. Seeds are sorted and taken in batches of up to
+         * MEDOID_BATCH_NEIGHBORS neighbors, and the lines of a batch are read once, in increasing order, each one giving
+         * its sum over the neighborhood of every seed of the batch holding it. These are the full sums of
+         * {@link Matrix#getMedoid(int[], int, int)}, so the medoids are the same. The distance from each medoid to its
+         * seed, the first step of the convergence, is then read in order of the medoids, so that the convergence only
+         * looks values up.
+         */
+        private void streamMedoidsOfAllSeeds(int[] seeds){
+        	final int[] sorted = seeds.clone();
+        	Arrays.sort(sorted);
+        	for (int first = 0, last; first < sorted.length; first = last) {
+        		long neighbors = neighborsByElement.size(sorted[first]);
+        		for (last = first + 1; last < sorted.length && neighbors + neighborsByElement.size(sorted[last]) <= MEDOID_BATCH_NEIGHBORS; last++) {
+        			neighbors += neighborsByElement.size(sorted[last]);
+        		}
+        		streamMedoids(Arrays.copyOfRange(sorted, first, last), (int) neighbors);
+        	}
+
+        	final long[] seedsByMedoid = new long[sorted.length];
+        	int withMedoid = 0;
+        	for (int seed : sorted) {
+        		if (medoidByElement[seed] >= 0) {
+        			seedsByMedoid[withMedoid++] = (long) medoidByElement[seed] << 32 | seed;
+        		}
+        	}
+        	Arrays.sort(seedsByMedoid, 0, withMedoid);
+        	stepByElement = new float[distanceMatrix.getLineNumber()];
+        	Arrays.fill(stepByElement, Float.NaN);
+        	final int steps = withMedoid;
+        	forEachIndex((steps + STREAM_CHUNK_SEEDS - 1) / STREAM_CHUNK_SEEDS, c -> {
+        		for (int k = c * STREAM_CHUNK_SEEDS; k < Math.min(steps, (c + 1) * STREAM_CHUNK_SEEDS); k++) {
+        			int seed = (int) seedsByMedoid[k];
+        			stepByElement[seed] = distanceMatrix.getValue((int) (seedsByMedoid[k] >>> 32), seed);
+        		}
+        	});
+        }
+
+        /** Medoids of a batch of sorted seeds, whose neighborhoods hold 'neighbors' points in all, reading each of their lines once */
+        private void streamMedoids(int[] batch, int neighbors){
+        	final int numPoints = distanceMatrix.getLineNumber();
+        	final int[][] lists = new int[batch.length][];
+        	final int[] starts = new int[batch.length];
+        	final int[] ends = new int[batch.length];
+        	final float[][] sums = new float[batch.length][];
+        	// for each line, the seeds of the batch holding it and its position in their neighborhood, by counts and then in place
+        	final int[] entriesByLine = new int[numPoints + 1];
+        	for (int b = 0; b < batch.length; b++) {
+        		if (neighborsByElement.isDense(batch[b])) {
+        			lists[b] = new int[neighborsByElement.size(batch[b])];
+        			ends[b] = neighborsByElement.copyNeighbors(batch[b], lists[b]);
+        		} else {
+        			lists[b] = neighborsByElement.getNeighbors();
+        			starts[b] = neighborsByElement.start(batch[b]);
+        			ends[b] = neighborsByElement.end(batch[b]);
+        		}
+        		sums[b] = new float[ends[b] - starts[b]];
+        		for (int k = starts[b]; k < ends[b]; k++) {
+        			entriesByLine[lists[b][k] + 1]++;
+        		}
+        	}
+        	int lineNumber = 0;
+        	for (int i = 0; i < numPoints; i++) {
+        		if (entriesByLine[i + 1] > 0) {
+        			lineNumber++;
+        		}
+        		entriesByLine[i + 1] += entriesByLine[i];
+        	}
+        	final int[] entrySeeds = new int[neighbors];
+        	final int[] entryPositions = new int[neighbors];
+        	final int[] next = Arrays.copyOf(entriesByLine, numPoints);
+        	for (int b = 0; b < batch.length; b++) {
+        		for (int k = starts[b]; k < ends[b]; k++) {
+        			int e = next[lists[b][k]]++;
+        			entrySeeds[e] = b;
+        			entryPositions[e] = k - starts[b];
+        		}
+        	}
+        	final int[] lines = new int[lineNumber];
+        	for (int i = 0, l = 0; i < numPoints; i++) {
+        		if (entriesByLine[i + 1] > entriesByLine[i]) {
+        			lines[l++] = i;
+        		}
+        	}
+
+        	final int pointsLength = distanceMatrix.getColumnNumber();
+        	forEachIndex((lines.length + STREAM_CHUNK_SEEDS - 1) / STREAM_CHUNK_SEEDS, c -> {
+        		float[] line = new float[pointsLength];
+        		for (int l = c * STREAM_CHUNK_SEEDS; l < Math.min(lines.length, (c + 1) * STREAM_CHUNK_SEEDS); l++) {
+        			int i = lines[l];
+        			distanceMatrix.getValues(i, line);
+        			for (int e = entriesByLine[i]; e < entriesByLine[i + 1]; e++) {
+        				int b = entrySeeds[e];
+        				int[] js = lists[b];
+        				float sum = 0;
+        				for (int k = starts[b]; k < ends[b]; k++) {
+        					sum += line[js[k]];
+        				}
+        				sums[b][entryPositions[e]] = sum;
+        			}
+        		}
+        	});
+
+        	for (int b = 0; b < batch.length; b++) {
+        		int medoid = -1;
+        		float minSum = Float.MAX_VALUE;
+        		for (int k = 0; k < sums[b].length; k++) {
+        			if (sums[b][k] < minSum) {
+        				minSum = sums[b][k];
+        				medoid = lists[b][starts[b] + k];
+        			}
+        		}
+        		medoidByElement[batch[b]] = medoid;
+        	}
+        }
+
+        /**
+         * Returns, from the neighbors of point, that one which has the lowest sum of distances to the others.
+         * I.e., the point that best centers all of them.
+         * Seeds mostly climb through the same points, so it is computed once per point and shared by all seeds. Two threads
+         * may still compute it at the same time, but they find the same value, so the memo needs no synchronization.
+         */
+        int getMeanPoint(int point) {
+            int medoid = medoidByElement[point];
+            if(medoid < 0){
+                boolean dense = neighborsByElement.isDense(point);
+                int[] neighbors;
+                int from;
+                int to;
+                if(dense){
+                    neighbors = decodedNeighbors.take();
+                    from = 0;
+                    to = neighborsByElement.copyNeighbors(point, neighbors);
+                }else{
+                    neighbors = neighborsByElement.getNeighbors();
+                    from = neighborsByElement.start(point);
+                    to = neighborsByElement.end(point);
+                }
+                if(blockedMedoids){
+                    float[] sums = neighborhoodSums.take();
+                    medoid = distanceMatrix.getMedoid(neighbors, from, to, sums);
+                    neighborhoodSums.give(sums);
+                }else{
+                    medoid = distanceMatrix.getMedoid(neighbors, from, to, point);
+                }
+                if(dense){
+                    decodedNeighbors.give(neighbors);
+                }
+                medoidByElement[point] = medoid;
+            }
+            return medoid;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+    	//generateRandomMatrix(3500);
+
+        if (args.length == 0) {
+        	System.err.println("Usage:"
+        	    + "\narg0 is the path for the distance matrix file, either text or binary (see util.BinaryMatrixFormat)."
+        	    + "\narg1 and arg2 are optional:"
+        	    + "\n\targ0 accepts 0 for serial, 1 for parallel using java 8 (default), 2 for parallel using custom parallel API"
+        	    + "\n\targ2 is the number of threads to run in parallel (by default it will be the number of cores)"
+        	    + "\n\targ3 is optional, the matrix storage: HEAP, OFF_HEAP, FLOAT16, QUANTIZED_16 or QUANTIZED_8. Binary files are memory-mapped when it is not informed."
+        	    + "\n\t\tCACHED reads a binary file larger than the memory in blocks, caching up to -Dmeanshift.cacheMegabytes (default 1024) of them"
+        	    + "\n\targ4 is optional: 'drift' also clusters the float32 matrix and reports how far the centers drift from it"
+        	    );
+        	System.exit(1);
+        }
+
+        File distanceMatrixFile = new File(args[0]);
+        StorageType storageType = null;
+        MeanShiftConfig config = new MeanShiftConfig();
+        //if optional parameters informed, overwrites the default option to run and number of threads:
+        if(args.length > 1){
+            config.setOption(Integer.parseInt(args[1]));
+            if(args.length > 2){
+                config.setThreads(Integer.parseInt(args[2]));
+                if(args.length > 3 && !args[3].equals("CACHED")){
+                    storageType = StorageType.valueOf(args[3]);
+                }
+            }
+        }
+
+        try (MeanShiftClusterer clusterer = new MeanShiftClusterer(config)) {
+            //text is parsed by the pool of the clusterer, serially for option 0
+            ExecutorService pool = clusterer.getExecutorService();
+            Matrix m;
+            if (args.length > 3 && args[3].equals("CACHED")) {
+                m = Matrix.loadCached(distanceMatrixFile, Long.getLong("meanshift.cacheMegabytes", 1024) << 20);
+            } else {
+                m = storageType == null ? Matrix.load(distanceMatrixFile, pool) : Matrix.load(distanceMatrixFile, storageType, pool);
+            }
+
+            TimeWatcher timeWatcher = new TimeWatcher().start();
+            List<Integer> clusters = clusterer.mean_shift(m, m.getLineNumber(), 0.5F, 100);
+            System.out.println("total time to run meanshift: " + timeWatcher.getTime());
+
+            Collections.sort(clusters);
+            System.out.println("Cluster centers:" + clusters);
+
+            if(args.length > 4 && args[4].equals("drift")){
+                Matrix reference = Matrix.load(distanceMatrixFile, pool);
+                List<Integer> referenceClusters = clusterer.mean_shift(reference, reference.getLineNumber(), 0.5F, 100);
+                System.out.println(computeCenterDrift(reference, referenceClusters, m, clusters));
+            }
+        }
+    }
+
+    /**
+     * Measures how far centers found over a matrix of reduced precision are from the centers found over its float32
+     * reference. Each center is matched to its nearest reference center, and distances are read from the reference.
+     */
+    static CenterDrift computeCenterDrift(Matrix reference, List<Integer> referenceCenters, Matrix approximation, List<Integer> centers) {
+        float maxValueError = 0;
+        float[] referenceLine = new float[reference.getColumnNumber()];
+        float[] approximationLine = new float[reference.getColumnNumber()];
+        for (int i = 0; i < reference.getLineNumber(); i++) {
+            reference.getValues(i, referenceLine);
+            approximation.getValues(i, approximationLine);
+            for (int j = 0; j < referenceLine.length; j++) {
+                maxValueError = Math.max(maxValueError, Math.abs(referenceLine[j] - approximationLine[j]));
+            }
+        }
+
+        if (referenceCenters.isEmpty() || centers.isEmpty()) {
+            // no pair of centers to measure a drift between
+            return new CenterDrift(maxValueError, centers.size(), referenceCenters.size(), 0, Float.NaN, Float.NaN);
+        }
+        int identical = 0;
+        float sumDrift = 0;
+        float maxDrift = 0;
+        for (int center : centers) {
+            float drift = Float.MAX_VALUE;
+            for (int referenceCenter : referenceCenters) {
+                drift = Math.min(drift, reference.getValue(center, referenceCenter));
+            }
+            if (referenceCenters.contains(center)) {
+                identical++;
+                drift = 0;
+            }
+            sumDrift += drift;
+            maxDrift = Math.max(maxDrift, drift);
+        }
+        return new CenterDrift(maxValueError, centers.size(), referenceCenters.size(), identical, sumDrift / centers.size(), maxDrift);
+    }
+
+    /** What {@link #computeCenterDrift} measures. Its toString is the report printed by main */
+    static final class CenterDrift {
+        /** Largest difference between a value of the approximation and the same value of the reference */
+        final float maxValueError;
+        final int centers;
+        final int referenceCenters;
+        /** Centers which are also reference centers */
+        final int identical;
+        /** Mean and max distance from each center to its nearest reference center, zero for the identical ones. NaN if either side has no center */
+        final float meanDrift;
+        final float maxDrift;
+
+        CenterDrift(float maxValueError, int centers, int referenceCenters, int identical, float meanDrift, float maxDrift) {
+            this.maxValueError = maxValueError;
+            this.centers = centers;
+            this.referenceCenters = referenceCenters;
+            this.identical = identical;
+            this.meanDrift = meanDrift;
+            this.maxDrift = maxDrift;
+        }
+
+        @Override
+        public String toString() {
+            return "Max error of the matrix values: " + maxValueError
+                + "\nCenters: " + centers + ", reference centers: " + referenceCenters + ", identical: " + identical
+                + "\nDrift from the nearest reference center: mean " + meanDrift + ", max " + maxDrift;
+        }
+    }
+
+    static void generateRandomMatrix(int nElements) {
+        Matrix m = generateRandomMatrix(nElements, new Random());
+        m.save(new File("/home/icaro/parallel-meanshift/arq"+nElements+".in"));
+    }
+
+    /** Generates a symmetric matrix of nElements lines with random values in [0, 1), as the arq*.in files */
+    static Matrix generateRandomMatrix(int nElements, Random random) {
+        Matrix m = new SymmetricMatrix(nElements);
+        for (int i = 0; i < nElements; i++) {
+            for (int j = i + 1; j < nElements; j++) {
+                m.setValue(i, j, random.nextFloat());
+            }
+        }
+        return m;
+    }
+}
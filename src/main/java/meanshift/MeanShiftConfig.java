@@ -0,0 +1,173 @@
+package meanshift;
+
+import util.parallel.Schedule;
+import util.parallel.Summation;
+
+/**
+ * Settings of a {@link MeanShiftClusterer}. Setters return the config itself, so it can be written fluently:
+ * <pre>
+ *     {@code new MeanShiftConfig().setOption(2).setThreads(8).setVerbose(false)}
+ * </pre>
+ * Defaults come from the meanshift.* system properties, when they are set. A clusterer keeps its own copy of the config,
+ * so changing a config later does not change the clusterers already created with it.
+ */
+public class MeanShiftConfig {
+
+    /** Values of {@link #setOption(int)} */
+    public static final int SERIAL = 0, PARALLEL_STREAMS = 1, PARALLEL_CUSTOM = 2;
+
+    private int option = PARALLEL_STREAMS;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean blockedMedoids = Boolean.getBoolean("meanshift.blockedMedoids");
+    private boolean bitsetNeighbors = !Boolean.getBoolean("meanshift.listNeighbors");
+    private int bandwidthSampleSize = Integer.getInteger("meanshift.bandwidthSampleSize", -1);
+    private long bandwidthSampleSeed = Long.getLong("meanshift.bandwidthSampleSeed", 1);
+    private Schedule schedule = Schedule.valueOf(System.getProperty("meanshift.schedule", Schedule.DYNAMIC.name()));
+    private int chunkSize = Integer.getInteger("meanshift.chunkSize", 0);
+    private Summation summation = Summation.valueOf(System.getProperty("meanshift.summation", Summation.PAIRWISE.name()));
+    private boolean verbose = !Boolean.getBoolean("meanshift.quiet");
+    private String jmxName = System.getProperty("meanshift.jmxName");
+
+    public MeanShiftConfig() {
+    }
+
+    public MeanShiftConfig(MeanShiftConfig other) {
+        option = other.option;
+        threads = other.threads;
+        blockedMedoids = other.blockedMedoids;
+        bitsetNeighbors = other.bitsetNeighbors;
+        bandwidthSampleSize = other.bandwidthSampleSize;
+        bandwidthSampleSeed = other.bandwidthSampleSeed;
+        schedule = other.schedule;
+        chunkSize = other.chunkSize;
+        summation = other.summation;
+        verbose = other.verbose;
+        jmxName = other.jmxName;
+    }
+
+    public int getOption() {
+        return option;
+    }
+
+    /** 0 runs serially, 1 in parallel with java 8 streams (default), 2 in parallel with the util.parallel API */
+    public MeanShiftConfig setOption(int option) {
+        if (option < SERIAL || option > PARALLEL_CUSTOM) {
+            throw new IllegalArgumentException("Option must be 0, 1 or 2, got " + option);
+        }
+        this.option = option;
+        return this;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /** Number of threads of the pool created by the clusterer. Not used when a pool is given to it */
+    public MeanShiftConfig setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive, got " + threads);
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    public boolean isBlockedMedoids() {
+        return blockedMedoids;
+    }
+
+    /**
+     * Searches medoids reading only half of each neighborhood submatrix, which must then be symmetric
+     * (see Matrix.getLineSums), instead of the exact pruned search (default). Its sums are added in another order, and
+     * may differ in their last bits: a medoid may then change between two points of nearly the same sum.
+     */
+    public MeanShiftConfig setBlockedMedoids(boolean blockedMedoids) {
+        this.blockedMedoids = blockedMedoids;
+        return this;
+    }
+
+    public boolean isBitsetNeighbors() {
+        return bitsetNeighbors;
+    }
+
+    /**
+     * Keeps the dense neighborhoods, of more than 1 / 32 of the points, as bitsets instead of lists (default), see
+     * util.NeighborIndex. It changes memory and speed, not the centers.
+     */
+    public MeanShiftConfig setBitsetNeighbors(boolean bitsetNeighbors) {
+        this.bitsetNeighbors = bitsetNeighbors;
+        return this;
+    }
+
+    public int getBandwidthSampleSize() {
+        return bandwidthSampleSize;
+    }
+
+    /** Estimates the bandwidth from this number of randomly chosen lines, instead of all of them (-1) */
+    public MeanShiftConfig setBandwidthSampleSize(int bandwidthSampleSize) {
+        this.bandwidthSampleSize = bandwidthSampleSize;
+        return this;
+    }
+
+    public long getBandwidthSampleSeed() {
+        return bandwidthSampleSeed;
+    }
+
+    /** Seed of the random choice of the lines of the bandwidth sample */
+    public MeanShiftConfig setBandwidthSampleSeed(long bandwidthSampleSeed) {
+        this.bandwidthSampleSeed = bandwidthSampleSeed;
+        return this;
+    }
+
+    public Schedule getSchedule() {
+        return schedule;
+    }
+
+    /** How loops of option 2 share their indices among the threads */
+    public MeanShiftConfig setSchedule(Schedule schedule) {
+        this.schedule = schedule;
+        return this;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /** Number of indices of each chunk of the loops of option 2. 0 lets the schedule choose */
+    public MeanShiftConfig setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public Summation getSummation() {
+        return summation;
+    }
+
+    /** How parallel sums are accumulated. PAIRWISE and KAHAN give the same bandwidth for any option and number of threads */
+    public MeanShiftConfig setSummation(Summation summation) {
+        this.summation = summation;
+        return this;
+    }
+
+    public boolean isVerbose() {
+        return verbose;
+    }
+
+    /** Whether the time of each phase is printed to the standard output */
+    public MeanShiftConfig setVerbose(boolean verbose) {
+        this.verbose = verbose;
+        return this;
+    }
+
+    public String getJmxName() {
+        return jmxName;
+    }
+
+    /**
+     * Object name, as "meanshift:type=MeanShiftClusterer,name=main", under which the clusterer registers a
+     * {@link MeanShiftStatsMBean} until it is closed. Null (default) registers nothing.
+     */
+    public MeanShiftConfig setJmxName(String jmxName) {
+        this.jmxName = jmxName;
+        return this;
+    }
+}
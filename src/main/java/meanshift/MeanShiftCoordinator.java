@@ -0,0 +1,159 @@
+package meanshift;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import util.Matrix;
+import util.TimeWatcher;
+
+/**
+ * Runs mean shift over several processes, possibly on other machines, each running a {@link MeanShiftWorker}. The
+ * distance matrix file is shared by all of them, as a binary file each one maps (see util.BinaryMatrixFormat), so only
+ * its path travels. The coordinator estimates the bandwidth, deals the seeds round robin among the workers, merges
+ * the intensities they return, keeping the highest of each point as a single clusterer does, and finally suppresses the
+ * near duplicate centers. The centers are then the same as those of {@link MeanShiftClusterer#mean_shift}.
+ */
+public class MeanShiftCoordinator {
+
+    private final MeanShiftClusterer clusterer;
+    private final List<InetSocketAddress> workers;
+    private int connectTimeoutMillis = Integer.getInteger("meanshift.connectTimeoutMillis", 10000);
+    private int replyTimeoutMillis = Integer.getInteger("meanshift.replyTimeoutMillis", 3600000);
+
+    /**
+     * Runs the steps of the coordinator with clusterer, and the climbs with the given workers, each given once: a worker
+     * given twice would climb two shares with the same threads.
+     */
+    public MeanShiftCoordinator(MeanShiftClusterer clusterer, List<InetSocketAddress> workers) {
+        if (workers.isEmpty()) {
+            throw new IllegalArgumentException("At least one worker is needed");
+        }
+        if (new HashSet<>(workers).size() < workers.size()) {
+            throw new IllegalArgumentException("Workers must be distinct, got " + workers);
+        }
+        this.clusterer = clusterer;
+        this.workers = new ArrayList<>(workers);
+    }
+
+    /**
+     * Sets how long a connection to a worker may take, and how long a worker may then take to reply, each in
+     * milliseconds, 0 waiting forever. Past either, the clustering fails with a SocketTimeoutException. By default, 10
+     * seconds to connect, and an hour to reply, or -Dmeanshift.connectTimeoutMillis and -Dmeanshift.replyTimeoutMillis.
+     */
+    public MeanShiftCoordinator setTimeouts(int connectTimeoutMillis, int replyTimeoutMillis) {
+        if (connectTimeoutMillis < 0 || replyTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeouts must not be negative, got " + connectTimeoutMillis + " and " + replyTimeoutMillis);
+        }
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.replyTimeoutMillis = replyTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Clusters the distance matrix of file, whose path must be valid for all workers, and inside their base directory. See
+     * {@link MeanShiftClusterer#mean_shift(Matrix, int, float, int)} for the other parameters.
+     */
+    public List<Integer> mean_shift(File file, int maxSeeds, float quantile, int maxIterations) throws IOException, ParseException {
+        TimeWatcher timeWatcher = new TimeWatcher().start();
+        Matrix distanceMatrix = Matrix.load(file, clusterer.getExecutorService());
+        try {
+            int[] seeds = clusterer.seedList(distanceMatrix.getLineNumber(), maxSeeds).stream().mapToInt(Integer::intValue).toArray();
+            float bandwidth = clusterer.estimateBandwidth(distanceMatrix, quantile);
+
+            // all requests are sent before any reply is read, so the workers climb at the same time
+            List<Socket> sockets = new ArrayList<>(workers.size());
+            try {
+                for (int w = 0; w < workers.size(); w++) {
+                    Socket socket = new Socket();
+                    sockets.add(socket);
+                    socket.connect(workers.get(w), connectTimeoutMillis);
+                    socket.setSoTimeout(replyTimeoutMillis);
+                    socket.setTcpNoDelay(true);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    out.writeInt(MeanShiftWorker.MAGIC);
+                    out.writeUTF(file.getAbsolutePath());
+                    out.writeFloat(bandwidth);
+                    out.writeInt(maxIterations);
+                    MeanShiftWorker.writeInts(out, seeds);
+                    MeanShiftWorker.writeInts(out, share(seeds, w, workers.size()));
+                    out.flush();
+                }
+
+                AtomicIntegerArray intensityByCenter = new AtomicIntegerArray(distanceMatrix.getLineNumber());
+                for (int w = 0; w < workers.size(); w++) {
+                    readIntensities(sockets.get(w), workers.get(w), intensityByCenter);
+                }
+                clusterer.log("Climbs of " + seeds.length + " seeds by " + workers.size() + " workers finished after " + timeWatcher.getTime());
+
+                return clusterer.removeNearDuplicateCenters(distanceMatrix, bandwidth, intensityByCenter);
+            } finally {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+        } finally {
+            distanceMatrix.destroyResources();
+        }
+    }
+
+    /** Seeds of worker w: one of every 'workers' seeds, so that each worker gets seeds from all over the matrix */
+    static int[] share(int[] seeds, int w, int workers) {
+        int[] share = new int[(seeds.length - w + workers - 1) / workers];
+        for (int k = 0; k < share.length; k++) {
+            share[k] = seeds[w + k * workers];
+        }
+        return share;
+    }
+
+    /** Merges the reply of a worker into intensityByCenter, keeping the highest intensity of each point */
+    private static void readIntensities(Socket socket, InetSocketAddress worker, AtomicIntegerArray intensityByCenter) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        if (in.readByte() != MeanShiftWorker.OK) {
+            throw new IOException("Worker " + worker + " failed: " + in.readUTF());
+        }
+        int centers = in.readInt();
+        for (int c = 0; c < centers; c++) {
+            int point = in.readInt();
+            int intensity = in.readInt();
+            if (intensity > intensityByCenter.get(point)) {
+                intensityByCenter.set(point, intensity);
+            }
+        }
+    }
+
+    /**
+     * Clusters a distance matrix file over running workers.
+     * arg0 is the path for the distance matrix file, the same for the workers, preferably binary.
+     * The next args are the workers, as host:port.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: MeanShiftCoordinator matrixFile host:port [host:port ...]");
+            System.exit(1);
+        }
+        List<InetSocketAddress> workers = new ArrayList<>();
+        for (int k = 1; k < args.length; k++) {
+            int colon = args[k].lastIndexOf(':');
+            workers.add(new InetSocketAddress(args[k].substring(0, colon), Integer.parseInt(args[k].substring(colon + 1))));
+        }
+        try (MeanShiftClusterer clusterer = new MeanShiftClusterer()) {
+            TimeWatcher timeWatcher = new TimeWatcher().start();
+            List<Integer> clusters = new MeanShiftCoordinator(clusterer, workers).mean_shift(new File(args[0]), -1, 0.5F, 100);
+            System.out.println("total time to run meanshift: " + timeWatcher.getTime());
+
+            Collections.sort(clusters);
+            System.out.println("Cluster centers:" + clusters);
+        }
+    }
+}
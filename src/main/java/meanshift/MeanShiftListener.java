@@ -0,0 +1,11 @@
+package meanshift;
+
+/**
+ * Receives the measures of each clustering run by a {@link MeanShiftClusterer}.
+ * It is called by the thread which called mean_shift, after the clustering, so concurrent calls may notify it at the
+ * same time.
+ */
+public interface MeanShiftListener {
+
+    void clusteringFinished(MeanShiftMetrics metrics);
+}
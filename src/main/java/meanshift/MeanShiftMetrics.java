@@ -0,0 +1,260 @@
+package meanshift;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures of one call of {@link MeanShiftClusterer#mean_shift}, given to each {@link MeanShiftListener} of the clusterer.
+ * Times are in nanoseconds.
+ */
+public class MeanShiftMetrics {
+
+    private int points;
+    private int seeds;
+    private float bandwidth;
+    private float bandwidthMargin;
+
+    private long bandwidthNanos;
+    private long neighborsNanos;
+    private long medoidsNanos;
+    private long convergenceNanos;
+    private long postProcessingNanos;
+    private long totalNanos;
+
+    private int[] iterationHistogram = new int[0];
+    private int maxIterationsHits;
+    private int[] neighborhoodSizeHistogram = new int[0];
+    private int minNeighborhoodSize;
+    private int maxNeighborhoodSize;
+    private double meanNeighborhoodSize;
+
+    private int centersBeforeSuppression;
+    private int centers;
+    private long allocatedBytes = -1;
+
+    /** Number of points of the distance matrix */
+    public int getPoints() {
+        return points;
+    }
+
+    /** Number of seeds climbed */
+    public int getSeeds() {
+        return seeds;
+    }
+
+    public float getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * Half width of the 95% confidence interval of the bandwidth, when it is estimated from a sample of the lines: the
+     * bandwidth of all of them is likely within this margin of it. Zero when it is computed from all of them.
+     */
+    public float getBandwidthMargin() {
+        return bandwidthMargin;
+    }
+
+    /** Time to estimate the bandwidth */
+    public long getBandwidthNanos() {
+        return bandwidthNanos;
+    }
+
+    /** Time to build the index of the neighbors of each seed */
+    public long getNeighborsNanos() {
+        return neighborsNanos;
+    }
+
+    /** Time to compute the medoid of the neighborhood of each seed, the first step of every climb */
+    public long getMedoidsNanos() {
+        return medoidsNanos;
+    }
+
+    /** Time of the climbs of the seeds, after their first medoids */
+    public long getConvergenceNanos() {
+        return convergenceNanos;
+    }
+
+    /** Time to suppress the near duplicate centers */
+    public long getPostProcessingNanos() {
+        return postProcessingNanos;
+    }
+
+    /** Time of the whole call */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /** Number of seeds by number of iterations of their climb: position i counts the seeds which took i iterations */
+    public int[] getIterationHistogram() {
+        return iterationHistogram.clone();
+    }
+
+    /** Number of seeds which stopped by reaching maxIterations before converging */
+    public int getMaxIterationsHits() {
+        return maxIterationsHits;
+    }
+
+    /**
+     * Number of seeds by the size of their neighborhood, in powers of two: position 0 counts the empty neighborhoods, and
+     * position b &gt; 0 counts the sizes from 2^(b-1) to 2^b - 1.
+     */
+    public int[] getNeighborhoodSizeHistogram() {
+        return neighborhoodSizeHistogram.clone();
+    }
+
+    public int getMinNeighborhoodSize() {
+        return minNeighborhoodSize;
+    }
+
+    public int getMaxNeighborhoodSize() {
+        return maxNeighborhoodSize;
+    }
+
+    public double getMeanNeighborhoodSize() {
+        return meanNeighborhoodSize;
+    }
+
+    /** Number of distinct points where some seed converged */
+    public int getCentersBeforeSuppression() {
+        return centersBeforeSuppression;
+    }
+
+    /** Number of centers returned, after the near duplicates were suppressed */
+    public int getCenters() {
+        return centers;
+    }
+
+    /**
+     * Rough figure of the bytes allocated during the call, or -1 if the JVM does not measure it: the sum, over the threads
+     * of the JVM alive at its end, of what each allocated since its start. It includes whatever else ran meanwhile, as
+     * concurrent calls, and misses the threads which ended before the call did, as pool threads let go when idle.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    void setPoints(int points) {
+        this.points = points;
+    }
+
+    void setSeeds(int seeds) {
+        this.seeds = seeds;
+    }
+
+    void setBandwidth(float bandwidth, float margin, long nanos) {
+        this.bandwidth = bandwidth;
+        this.bandwidthMargin = margin;
+        this.bandwidthNanos = nanos;
+    }
+
+    void setNeighborsNanos(long neighborsNanos) {
+        this.neighborsNanos = neighborsNanos;
+    }
+
+    void setMedoidsNanos(long medoidsNanos) {
+        this.medoidsNanos = medoidsNanos;
+    }
+
+    void setConvergenceNanos(long convergenceNanos) {
+        this.convergenceNanos = convergenceNanos;
+    }
+
+    void setPostProcessingNanos(long postProcessingNanos) {
+        this.postProcessingNanos = postProcessingNanos;
+    }
+
+    void setTotalNanos(long totalNanos) {
+        this.totalNanos = totalNanos;
+    }
+
+    void setIterations(int[] iterationsBySeed, boolean[] stoppedOnLimitBySeed) {
+        int longest = 0;
+        for (int iterations : iterationsBySeed) {
+            longest = Math.max(longest, iterations);
+        }
+        iterationHistogram = new int[longest + 1];
+        maxIterationsHits = 0;
+        for (int k = 0; k < iterationsBySeed.length; k++) {
+            iterationHistogram[iterationsBySeed[k]]++;
+            if (stoppedOnLimitBySeed[k]) {
+                maxIterationsHits++;
+            }
+        }
+    }
+
+    void setNeighborhoodSizes(int[] sizes) {
+        neighborhoodSizeHistogram = new int[33];
+        minNeighborhoodSize = sizes.length == 0 ? 0 : Integer.MAX_VALUE;
+        maxNeighborhoodSize = 0;
+        long sum = 0;
+        for (int size : sizes) {
+            neighborhoodSizeHistogram[32 - Integer.numberOfLeadingZeros(size)]++;
+            minNeighborhoodSize = Math.min(minNeighborhoodSize, size);
+            maxNeighborhoodSize = Math.max(maxNeighborhoodSize, size);
+            sum += size;
+        }
+        meanNeighborhoodSize = sizes.length == 0 ? 0 : (double) sum / sizes.length;
+    }
+
+    void setCenters(int centersBeforeSuppression, int centers) {
+        this.centersBeforeSuppression = centersBeforeSuppression;
+        this.centers = centers;
+    }
+
+    void setAllocatedBytes(long allocatedBytes) {
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /** Bytes allocated so far by each live thread, by thread id, or null if the JVM does not measure it */
+    static Map<Long, Long> sampleAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        if (!sunThreads.isThreadAllocatedMemorySupported() || !sunThreads.isThreadAllocatedMemoryEnabled()) {
+            return null;
+        }
+        long[] ids = sunThreads.getAllThreadIds();
+        long[] allocated = sunThreads.getThreadAllocatedBytes(ids);
+        Map<Long, Long> bytesByThread = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (allocated[i] >= 0) { // -1 for a thread which ended meanwhile
+                bytesByThread.put(ids[i], allocated[i]);
+            }
+        }
+        return bytesByThread;
+    }
+
+    /**
+     * Bytes allocated since sample (of {@link #sampleAllocatedBytes()}) by the threads alive now: the whole count of
+     * those started since, and the growth of the others. Never negative, unlike the difference of two totals, which
+     * drops the bytes of the threads which ended in between.
+     */
+    static long getAllocatedBytesSince(Map<Long, Long> sample) {
+        Map<Long, Long> now = sampleAllocatedBytes();
+        if (now == null) {
+            return -1;
+        }
+        long total = 0;
+        for (Map.Entry<Long, Long> thread : now.entrySet()) {
+            Long before = sample.get(thread.getKey());
+            total += Math.max(0, thread.getValue() - (before == null ? 0 : before));
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "points=" + points + ", seeds=" + seeds + ", bandwidth=" + bandwidth + " +-" + bandwidthMargin
+            + ", nanos: bandwidth=" + bandwidthNanos + " neighbors=" + neighborsNanos + " medoids=" + medoidsNanos
+            + " convergence=" + convergenceNanos + " postProcessing=" + postProcessingNanos + " total=" + totalNanos
+            + ", maxIterationsHits=" + maxIterationsHits + ", iterations=" + Arrays.toString(iterationHistogram)
+            + ", neighborhood sizes: min=" + minNeighborhoodSize + " mean=" + meanNeighborhoodSize + " max=" + maxNeighborhoodSize
+            + ", centers: " + centersBeforeSuppression + " before suppression, " + centers + " after"
+            + ", allocatedBytes=" + allocatedBytes;
+    }
+}
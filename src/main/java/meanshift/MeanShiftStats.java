@@ -0,0 +1,151 @@
+package meanshift;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Listener which keeps the measures of the clusterings for JMX. A clusterer registers one under
+ * {@link MeanShiftConfig#getJmxName()}, when it is set.
+ */
+public class MeanShiftStats implements MeanShiftStatsMBean, MeanShiftListener {
+
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final AtomicLong clusterings = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong totalMaxIterationsHits = new AtomicLong();
+    private volatile MeanShiftMetrics last = new MeanShiftMetrics();
+
+    @Override
+    public void clusteringFinished(MeanShiftMetrics metrics) {
+        clusterings.incrementAndGet();
+        totalNanos.addAndGet(metrics.getTotalNanos());
+        totalMaxIterationsHits.addAndGet(metrics.getMaxIterationsHits());
+        last = metrics;
+    }
+
+    /** Registers this in the platform MBean server under name */
+    public void register(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register the MBean " + name, e);
+        }
+    }
+
+    /** Removes the MBean registered under name, if any */
+    public static void unregister(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not unregister the MBean " + name, e);
+        }
+    }
+
+    @Override
+    public long getClusterings() {
+        return clusterings.get();
+    }
+
+    @Override
+    public double getTotalTimeMillis() {
+        return totalNanos.get() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getTotalMaxIterationsHits() {
+        return totalMaxIterationsHits.get();
+    }
+
+    @Override
+    public int getLastPoints() {
+        return last.getPoints();
+    }
+
+    @Override
+    public int getLastSeeds() {
+        return last.getSeeds();
+    }
+
+    @Override
+    public float getLastBandwidth() {
+        return last.getBandwidth();
+    }
+
+    @Override
+    public float getLastBandwidthMargin() {
+        return last.getBandwidthMargin();
+    }
+
+    @Override
+    public double getLastBandwidthTimeMillis() {
+        return last.getBandwidthNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getLastNeighborsTimeMillis() {
+        return last.getNeighborsNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getLastMedoidsTimeMillis() {
+        return last.getMedoidsNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getLastConvergenceTimeMillis() {
+        return last.getConvergenceNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getLastPostProcessingTimeMillis() {
+        return last.getPostProcessingNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getLastTotalTimeMillis() {
+        return last.getTotalNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public int[] getLastIterationHistogram() {
+        return last.getIterationHistogram();
+    }
+
+    @Override
+    public int getLastMaxIterationsHits() {
+        return last.getMaxIterationsHits();
+    }
+
+    @Override
+    public int[] getLastNeighborhoodSizeHistogram() {
+        return last.getNeighborhoodSizeHistogram();
+    }
+
+    @Override
+    public double getLastMeanNeighborhoodSize() {
+        return last.getMeanNeighborhoodSize();
+    }
+
+    @Override
+    public int getLastCentersBeforeSuppression() {
+        return last.getCentersBeforeSuppression();
+    }
+
+    @Override
+    public int getLastCenters() {
+        return last.getCenters();
+    }
+
+    @Override
+    public long getLastAllocatedBytes() {
+        return last.getAllocatedBytes();
+    }
+}
@@ -0,0 +1,48 @@
+package meanshift;
+
+/**
+ * JMX view of the clusterings of a {@link MeanShiftClusterer}: counters since its creation, and the measures of the
+ * last clustering. Times are in milliseconds.
+ */
+public interface MeanShiftStatsMBean {
+
+    long getClusterings();
+
+    double getTotalTimeMillis();
+
+    long getTotalMaxIterationsHits();
+
+    int getLastPoints();
+
+    int getLastSeeds();
+
+    float getLastBandwidth();
+
+    float getLastBandwidthMargin();
+
+    double getLastBandwidthTimeMillis();
+
+    double getLastNeighborsTimeMillis();
+
+    double getLastMedoidsTimeMillis();
+
+    double getLastConvergenceTimeMillis();
+
+    double getLastPostProcessingTimeMillis();
+
+    double getLastTotalTimeMillis();
+
+    int[] getLastIterationHistogram();
+
+    int getLastMaxIterationsHits();
+
+    int[] getLastNeighborhoodSizeHistogram();
+
+    double getLastMeanNeighborhoodSize();
+
+    int getLastCentersBeforeSuppression();
+
+    int getLastCenters();
+
+    long getLastAllocatedBytes();
+}
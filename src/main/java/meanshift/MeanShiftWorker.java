@@ -0,0 +1,254 @@
+package meanshift;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import util.Matrix;
+
+/**
+ * Worker of a distributed clustering, run by a {@link MeanShiftCoordinator}. It climbs a share of the seeds over a
+ * distance matrix file which it reads itself, either mapped, in the binary format, or as text.
+ * <p>
+ * Each request holds the path of the matrix, the bandwidth, the maximum iterations, all the seeds and the share of them
+ * to be climbed. Since climbs go through the neighborhoods of any seed, the worker indexes the neighbors of all of
+ * them, and then computes the medoids and the climbs of its share only. That index is not shared out: it takes each
+ * worker as long as a single clusterer, which bounds the speedup of adding workers to the climbs and medoids. It
+ * replies with the intensity of each point where some seed of its share converged. A connection may carry several requests, one after the other.
+ * Each connection is served by a thread of its own, so that several coordinators can share a worker, their
+ * clusterings then running at the same time on its clusterer.
+ * <p>
+ * Requests are checked before anything is allocated for them: the matrix must be inside the base directory of the
+ * worker, and the seeds must be points of the matrix, no more than its number of points. A request whose matrix
+ * cannot be loaded gets a FAILED reply, and its connection is closed, since its seeds were not read; a request with
+ * invalid seeds has its connection closed.
+ * <pre>
+ * request:  int MAGIC, UTF path, float bandwidth, int maxIterations, int n, n x int seeds, int m, m x int share
+ * reply:    byte OK, int c, c x (int point, int intensity)   or   byte FAILED, UTF message
+ * </pre>
+ */
+public class MeanShiftWorker implements Runnable {
+
+    static final int MAGIC = 0x4D535752; // "MSWR"
+    static final byte OK = 0, FAILED = 1;
+
+    private final MeanShiftClusterer clusterer;
+    private final ServerSocket serverSocket;
+    /** Directory out of which no matrix is read */
+    private final File baseDirectory;
+    /** Connections being served, closed when the worker stops */
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    /** Same as {@link #MeanShiftWorker(MeanShiftClusterer, ServerSocket, File)}, with -Dmeanshift.workerBaseDir, by default the working directory */
+    public MeanShiftWorker(MeanShiftClusterer clusterer, ServerSocket serverSocket) {
+        this(clusterer, serverSocket, new File(System.getProperty("meanshift.workerBaseDir", ".")));
+    }
+
+    /**
+     * Serves the requests received by serverSocket with clusterer, until the socket is closed. Only matrices inside
+     * baseDirectory are read, once links are resolved.
+     */
+    public MeanShiftWorker(MeanShiftClusterer clusterer, ServerSocket serverSocket, File baseDirectory) {
+        this.clusterer = clusterer;
+        this.serverSocket = serverSocket;
+        this.baseDirectory = baseDirectory;
+    }
+
+    /**
+     * Accepts connections until the server socket is closed, serving each in a thread of its own until the coordinator
+     * closes it. The connections still open are then closed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (!serverSocket.isClosed()) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (!serverSocket.isClosed()) {
+                        System.err.println("Connection to a coordinator failed: " + e);
+                    }
+                    continue;
+                }
+                connections.add(socket);
+                Thread thread = new Thread(() -> serveAndClose(socket), "MeanShiftWorker " + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } finally {
+            for (Socket socket : connections) {
+                close(socket);
+            }
+        }
+    }
+
+    private void serveAndClose(Socket socket) {
+        try {
+            serve(socket);
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                System.err.println("Connection to the coordinator " + socket.getRemoteSocketAddress() + " failed: " + e);
+            }
+        } finally {
+            connections.remove(socket);
+            close(socket);
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing left to send on it
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        while (true) {
+            int magic;
+            try {
+                magic = in.readInt();
+            } catch (EOFException e) {
+                return; // the coordinator is done
+            }
+            if (magic != MAGIC) {
+                throw new IOException("Not a mean shift request: " + Integer.toHexString(magic));
+            }
+            String path = in.readUTF();
+            float bandwidth = in.readFloat();
+            int maxIterations = in.readInt();
+
+            Matrix distanceMatrix;
+            try {
+                distanceMatrix = load(path);
+            } catch (Exception e) {
+                fail(out, e);
+                return; // the seeds of the request are still to be read
+            }
+            try {
+                int[] seeds = readInts(in, distanceMatrix.getLineNumber());
+                int[] share = readInts(in, distanceMatrix.getLineNumber());
+                AtomicIntegerArray intensityByCenter;
+                try {
+                    intensityByCenter = climb(distanceMatrix, bandwidth, maxIterations, seeds, share);
+                } catch (Exception e) {
+                    fail(out, e);
+                    continue;
+                }
+                out.writeByte(OK);
+                writeIntensities(out, intensityByCenter);
+                out.flush();
+            } finally {
+                distanceMatrix.destroyResources();
+            }
+        }
+    }
+
+    private static void fail(DataOutputStream out, Exception e) throws IOException {
+        out.writeByte(FAILED);
+        out.writeUTF(String.valueOf(e));
+        out.flush();
+    }
+
+    /** Loads the matrix of path, which must be inside the base directory, once links are resolved */
+    private Matrix load(String path) throws IOException, ParseException {
+        Path base = baseDirectory.toPath().toRealPath();
+        Path file = base.resolve(path).toRealPath();
+        if (!file.startsWith(base)) {
+            throw new IOException("Matrix " + path + " is outside of the base directory of the worker");
+        }
+        return Matrix.load(file.toFile(), clusterer.getExecutorService());
+    }
+
+    private AtomicIntegerArray climb(Matrix distanceMatrix, float bandwidth, int maxIterations, int[] seeds, int[] share) {
+        MeanShiftClusterer.Clustering clustering = clusterer.new Clustering(distanceMatrix);
+        clustering.computeIndicesOfAllNeighborsWithinRadius(seeds, bandwidth);
+        clustering.computeMedoidsOfAllSeeds(share);
+        return clustering.convergeAllSeeds(share, maxIterations, MeanShiftClusterer.stopThreshold(bandwidth));
+    }
+
+    /** Reads a length and as many points of a matrix of 'points' points, which bound both */
+    private static int[] readInts(DataInputStream in, int points) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > points) {
+            throw new IOException("Invalid number of seeds " + length + " for a matrix of " + points + " points");
+        }
+        int[] values = new int[length];
+        for (int k = 0; k < values.length; k++) {
+            values[k] = in.readInt();
+            if (values[k] < 0 || values[k] >= points) {
+                throw new IOException("Invalid seed " + values[k] + " for a matrix of " + points + " points");
+            }
+        }
+        return values;
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /** Writes the points with some intensity, as (point, intensity) pairs */
+    private static void writeIntensities(DataOutputStream out, AtomicIntegerArray intensityByCenter) throws IOException {
+        int centers = 0;
+        for (int point = 0; point < intensityByCenter.length(); point++) {
+            if (intensityByCenter.get(point) > 0) {
+                centers++;
+            }
+        }
+        out.writeInt(centers);
+        for (int point = 0; point < intensityByCenter.length(); point++) {
+            int intensity = intensityByCenter.get(point);
+            if (intensity > 0) {
+                out.writeInt(point);
+                out.writeInt(intensity);
+            }
+        }
+    }
+
+    /**
+     * Runs a worker until killed.
+     * arg0 is the port to listen to, 0 for any free one, which is then printed as "listening on port N".
+     * arg1 and arg2 are optional: the option and the number of threads, as for MeanShiftClusterer.
+     * The host to listen to is set by -Dmeanshift.workerHost, by default the loopback address, and the directory of
+     * the matrices by -Dmeanshift.workerBaseDir, by default the working directory.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: MeanShiftWorker port [option [threads]]");
+            System.exit(1);
+        }
+        MeanShiftConfig config = new MeanShiftConfig();
+        if (args.length > 1) {
+            config.setOption(Integer.parseInt(args[1]));
+            if (args.length > 2) {
+                config.setThreads(Integer.parseInt(args[2]));
+            }
+        }
+        String host = System.getProperty("meanshift.workerHost");
+        InetAddress address = host == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host);
+        try (MeanShiftClusterer clusterer = new MeanShiftClusterer(config);
+             ServerSocket serverSocket = new ServerSocket(Integer.parseInt(args[0]), 50, address)) {
+            System.out.println("MeanShiftWorker listening on port " + serverSocket.getLocalPort());
+            System.out.flush();
+            new MeanShiftWorker(clusterer, serverSocket).run();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package util;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import util.storage.BufferFloatStorage;
+import util.storage.CachedFileFloatStorage;
+import util.storage.StorageType;
+
+/**
+ * Compact binary layout for distance matrices, meant to be read through a memory map.
+ * <pre>
+ * offset  size  field
+ *      0     4  magic number, "MSMX"
+ *      4     4  format version
+ *      8     4  element type (see ELEMENT_FLOAT32)
+ *     12     4  number of lines
+ *     16     4  number of columns
+ *     20     4  layout (see LAYOUT_DENSE)
+ *     24     8  reserved, zeroed
+ *     32     -  values, row-major, little endian
+ * </pre>
+ * With {@link #LAYOUT_UPPER_TRIANGLE}, only the strict upper triangle of a {@link SymmetricMatrix} is written, in its
+ * packed order.
+ */
+public class BinaryMatrixFormat {
+
+    public static final int MAGIC = 0x584D534D; // "MSMX" when read little endian
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+
+    public static final int ELEMENT_FLOAT32 = 1;
+
+    public static final int LAYOUT_DENSE = 0;
+    public static final int LAYOUT_UPPER_TRIANGLE = 1;
+
+    /** Size of the blocks read by {@link #loadCached(File, long)}, rounded to whole lines */
+    public static final int CACHE_BLOCK_BYTES = 1 << 22;
+
+    /** Size of the buffer used to stream values to disk */
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    /** Returns true if file starts with the binary matrix magic number */
+    public static boolean isBinary(File file) throws IOException {
+        if (file.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(magic, 0);
+            magic.flip();
+            return magic.getInt() == MAGIC;
+        }
+    }
+
+    /** Saves m, packing it as an upper triangle if it is a {@link SymmetricMatrix} */
+    public static void save(Matrix m, File file) throws IOException {
+        int lines = m.getLineNumber();
+        int columns = m.getColumnNumber();
+        boolean triangle = m instanceof SymmetricMatrix;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(ELEMENT_FLOAT32).putInt(lines).putInt(columns);
+            header.putInt(triangle ? LAYOUT_UPPER_TRIANGLE : LAYOUT_DENSE);
+            header.rewind();
+            writeFully(channel, header);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < lines; i++) {
+                for (int j = triangle ? i + 1 : 0; j < columns; j++) {
+                    if (!buffer.hasRemaining()) {
+                        buffer.flip();
+                        writeFully(channel, buffer);
+                        buffer.clear();
+                    }
+                    buffer.putFloat(m.getValue(i, j));
+                }
+            }
+            buffer.flip();
+            writeFully(channel, buffer);
+        }
+    }
+
+    /** Maps the values of file read-only, sharing the OS page cache. The returned matrix cannot be modified */
+    public static Matrix load(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            int[] header = readHeader(channel, file);
+            int lines = header[0];
+            int columns = header[1];
+            if (header[2] == LAYOUT_UPPER_TRIANGLE) {
+                return new SymmetricMatrix(lines, BufferFloatStorage.map(channel, HEADER_SIZE, SymmetricMatrix.packedSize(lines), MapMode.READ_ONLY));
+            }
+            return new Matrix(lines, columns, BufferFloatStorage.map(channel, HEADER_SIZE, (long) lines * columns, MapMode.READ_ONLY));
+        }
+    }
+
+    /**
+     * Reads the values of file as they are needed, in blocks of about {@link #CACHE_BLOCK_BYTES}, keeping up to
+     * cacheBytes of them in memory (see {@link CachedFileFloatStorage}). For matrices larger than the memory: the dense
+     * layout is then best, since a line of the upper triangle layout is spread over all the previous packed rows.
+     * The returned matrix cannot be modified.
+     */
+    public static Matrix loadCached(File file, long cacheBytes) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            int[] header = readHeader(channel, file);
+            int lines = header[0];
+            int columns = header[1];
+            if (header[2] == LAYOUT_UPPER_TRIANGLE) {
+                int blockLength = CACHE_BLOCK_BYTES / 4;
+                return new SymmetricMatrix(lines, new CachedFileFloatStorage(channel, HEADER_SIZE, SymmetricMatrix.packedSize(lines), blockLength, cacheBytes));
+            }
+            // blocks of whole lines, so that a line is never split among two reads
+            int blockLength = Math.max(1, CACHE_BLOCK_BYTES / 4 / columns) * columns;
+            return new Matrix(lines, columns, new CachedFileFloatStorage(channel, HEADER_SIZE, (long) lines * columns, blockLength, cacheBytes));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Copies the values of file into a new storage of the given type */
+    public static Matrix load(File file, StorageType storageType) throws IOException {
+        Matrix mapped = load(file);
+        Matrix m = mapped.copy(storageType);
+        mapped.destroyResources();
+        return m;
+    }
+
+    /** Validates the header of file, returning its number of lines, columns and its layout */
+    private static int[] readHeader(FileChannel channel, File file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                break;
+            }
+        }
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+            throw new IOException("Not a binary matrix file: " + file);
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary matrix version " + version + " in " + file);
+        }
+        int elementType = header.getInt();
+        if (elementType != ELEMENT_FLOAT32) {
+            throw new IOException("Unsupported element type " + elementType + " in " + file);
+        }
+        int lines = header.getInt();
+        int columns = header.getInt();
+        int layout = header.getInt();
+        long size;
+        if (layout == LAYOUT_DENSE) {
+            size = (long) lines * columns;
+        } else if (layout == LAYOUT_UPPER_TRIANGLE && lines == columns) {
+            size = SymmetricMatrix.packedSize(lines);
+        } else {
+            throw new IOException("Unsupported layout " + layout + " for a " + lines + "x" + columns + " matrix in " + file);
+        }
+        if (channel.size() < HEADER_SIZE + 4L * size) {
+            throw new IOException("Truncated binary matrix file: " + file);
+        }
+        return new int[] { lines, columns, layout };
+    }
+
+    /** Converts a comma separated text matrix, as the arq*.in files, into the binary format */
+    public static void convert(File textFile, File binaryFile) throws Exception {
+        convert(textFile, binaryFile, false);
+    }
+
+    /**
+     * Converts a comma separated text matrix into the binary format.
+     * If symmetric, the text may also be an upper triangle, and only the upper triangle is written.
+     */
+    public static void convert(File textFile, File binaryFile, boolean symmetric) throws Exception {
+        Matrix m = symmetric ? SymmetricMatrix.load(textFile, StorageType.HEAP) : Matrix.load(textFile);
+        save(m, binaryFile);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: arg0 is the text matrix file to be converted, arg1 is the binary output file."
+                + "\narg2 is optional: 'symmetric' keeps only the upper triangle, for symmetric matrices with zero diagonal.");
+            System.exit(1);
+        }
+        TimeWatcher timeWatcher = new TimeWatcher().start();
+        convert(new File(args[0]), new File(args[1]), args.length > 2 && args[2].equals("symmetric"));
+        System.out.println("Converted " + args[0] + " into " + args[1] + " after " + timeWatcher.getTime());
+    }
+}
@@ -81,6 +81,20 @@ public class DataStructureUtils {
 		return Ordering.natural().leastOf(collection, k).get(k - 1);
 	}
 
+	/**
+	 * Returns 'size' distinct integers randomly chosen from 0 to n - 1, in random order.
+	 */
+	public static int[] sample(int n, int size, Random random) {
+		int[] values = MathUtils.rangeArray(n);
+		for (int i = 0; i < size; i++) {
+			int j = i + random.nextInt(n - i);
+			int value = values[i];
+			values[i] = values[j];
+			values[j] = value;
+		}
+		return Arrays.copyOf(values, size);
+	}
+
 	/**
 	 * Removes elements from collection until size <= limit.
 	 * The elements to be removed are randomly chosen from collection.
@@ -0,0 +1,110 @@
+package util;
+
+/**
+ * Distances between feature vectors, kept one after the other in float arrays.
+ * <p>
+ * Each distance is a single pass over both vectors, with four independent accumulators, so the JIT can keep several
+ * multiplications in flight and unroll the loop instead of waiting for each addition.
+ */
+public enum DistanceMetric {
+    EUCLIDEAN {
+        @Override
+        public float distance(float[] x, int xOffset, float[] y, int yOffset, int length) {
+            float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            int k = 0;
+            for (; k + 3 < length; k += 4) {
+                float d0 = x[xOffset + k] - y[yOffset + k];
+                float d1 = x[xOffset + k + 1] - y[yOffset + k + 1];
+                float d2 = x[xOffset + k + 2] - y[yOffset + k + 2];
+                float d3 = x[xOffset + k + 3] - y[yOffset + k + 3];
+                s0 += d0 * d0;
+                s1 += d1 * d1;
+                s2 += d2 * d2;
+                s3 += d3 * d3;
+            }
+            for (; k < length; k++) {
+                float d = x[xOffset + k] - y[yOffset + k];
+                s0 += d * d;
+            }
+            return (float) Math.sqrt((s0 + s1) + (s2 + s3));
+        }
+    },
+    /** One minus the cosine of the angle between the vectors, which are normalized once by {@link #prepare} */
+    COSINE {
+        @Override
+        public float distance(float[] x, int xOffset, float[] y, int yOffset, int length) {
+            return Math.max(0, 1 - dot(x, xOffset, y, yOffset, length));
+        }
+
+        /** For unit vectors, 1 - cos = |x - y|^2 / 2, so a single coordinate differs by at most sqrt(2 * distance) */
+        @Override
+        public float axisBound(float distance) {
+            return (float) Math.sqrt(2 * distance);
+        }
+
+        @Override
+        public float[] prepare(float[] vectors, int dimensions) {
+            float[] unit = vectors.clone();
+            for (int offset = 0; offset < unit.length; offset += dimensions) {
+                float norm = (float) Math.sqrt(dot(unit, offset, unit, offset, dimensions));
+                if (norm > 0) {
+                    for (int k = offset; k < offset + dimensions; k++) {
+                        unit[k] /= norm;
+                    }
+                }
+            }
+            return unit;
+        }
+    },
+    MANHATTAN {
+        @Override
+        public float distance(float[] x, int xOffset, float[] y, int yOffset, int length) {
+            float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            int k = 0;
+            for (; k + 3 < length; k += 4) {
+                s0 += Math.abs(x[xOffset + k] - y[yOffset + k]);
+                s1 += Math.abs(x[xOffset + k + 1] - y[yOffset + k + 1]);
+                s2 += Math.abs(x[xOffset + k + 2] - y[yOffset + k + 2]);
+                s3 += Math.abs(x[xOffset + k + 3] - y[yOffset + k + 3]);
+            }
+            for (; k < length; k++) {
+                s0 += Math.abs(x[xOffset + k] - y[yOffset + k]);
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+    };
+
+    /** Distance between the vectors of 'length' values starting at x[xOffset] and at y[yOffset] */
+    public abstract float distance(float[] x, int xOffset, float[] y, int yOffset, int length);
+
+    /**
+     * Returns the vectors, of 'dimensions' values each, as this metric compares them: a normalized copy for COSINE,
+     * the same array for the others.
+     */
+    public float[] prepare(float[] vectors, int dimensions) {
+        return vectors;
+    }
+
+    /**
+     * Largest difference, in a single coordinate, between two prepared vectors whose distance is the given one. For
+     * EUCLIDEAN and MANHATTAN, it is the distance itself. Used by {@link KdTree} to prune its searches.
+     */
+    public float axisBound(float distance) {
+        return distance;
+    }
+
+    private static float dot(float[] x, int xOffset, float[] y, int yOffset, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int k = 0;
+        for (; k + 3 < length; k += 4) {
+            s0 += x[xOffset + k] * y[yOffset + k];
+            s1 += x[xOffset + k + 1] * y[yOffset + k + 1];
+            s2 += x[xOffset + k + 2] * y[yOffset + k + 2];
+            s3 += x[xOffset + k + 3] * y[yOffset + k + 3];
+        }
+        for (; k < length; k++) {
+            s0 += x[xOffset + k] * y[yOffset + k];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
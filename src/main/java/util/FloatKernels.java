@@ -0,0 +1,144 @@
+package util;
+
+/**
+ * Inner loops over float arrays, on which the matrices and the neighbor index spend most of their time. This class is
+ * their scalar implementation; {@link #get()} returns instead the vectorized one of util.VectorFloatKernels, built
+ * from src/main/java17 with the jdk.incubator.vector module, when it can be loaded: on JDK 17 and later, with
+ * --add-modules jdk.incubator.vector. -Dmeanshift.vectorKernels=false keeps the scalar loops.
+ * <p>
+ * Both give the same results, except for the sums: vectorized sums add their values in another order, so they may
+ * differ in their last bits, from the scalar sums and from the sums of the other storages, and a medoid may then change
+ * between two points of nearly the same sum. They are only used with -Dmeanshift.vectorSums=true.
+ */
+public class FloatKernels {
+
+    /** Values added between two checks of a sum against its limit */
+    protected static final int LIMIT_STRIDE = 32;
+
+    private static final FloatKernels SCALAR = new FloatKernels();
+    private static final FloatKernels INSTANCE = load();
+
+    protected FloatKernels() {
+    }
+
+    private static FloatKernels load() {
+        if (Boolean.parseBoolean(System.getProperty("meanshift.vectorKernels", "true"))) {
+            try {
+                return (FloatKernels) Class.forName("util.VectorFloatKernels").getConstructor(boolean.class)
+                    .newInstance(Boolean.getBoolean("meanshift.vectorSums"));
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // not built, older JDK, or jdk.incubator.vector not added
+            }
+        }
+        return SCALAR;
+    }
+
+    /** The vectorized kernels if available and enabled, the scalar ones otherwise */
+    public static FloatKernels get() {
+        return INSTANCE;
+    }
+
+    public static FloatKernels scalar() {
+        return SCALAR;
+    }
+
+    /** Whether these are the vectorized kernels */
+    public boolean isVectorized() {
+        return false;
+    }
+
+    /** Sum of a[from] to a[to - 1] */
+    public float sum(float[] a, int from, int to) {
+        float sum = 0;
+        for (int k = from; k < to; k++) {
+            sum += a[k];
+        }
+        return sum;
+    }
+
+    /** Sum of the values a[base + offsets[k]], for k from 'from' to 'to' - 1 */
+    public float sum(float[] a, int base, int[] offsets, int from, int to) {
+        float sum = 0;
+        for (int k = from; k < to; k++) {
+            sum += a[base + offsets[k]];
+        }
+        return sum;
+    }
+
+    /**
+     * Same as {@link #sum(float[], int, int[], int, int)}, for non negative values, but stopping once the sum exceeds
+     * limit, then returning a partial sum above limit. Values are added in the same order, so a sum not above limit is
+     * exactly the full sum.
+     */
+    public float sum(float[] a, int base, int[] offsets, int from, int to, float limit) {
+        float sum = 0;
+        for (int k = from; k < to && sum <= limit;) {
+            for (int end = Math.min(to, k + LIMIT_STRIDE); k < end; k++) {
+                sum += a[base + offsets[k]];
+            }
+        }
+        return sum;
+    }
+
+    /** Same as {@link #sum(float[], int, int[], int, int)}, also adding each value a[base + offsets[k]] to dest[destPos + k - from] */
+    public float sumAndAdd(float[] a, int base, int[] offsets, int from, int to, float[] dest, int destPos) {
+        float sum = 0;
+        for (int k = from; k < to; k++) {
+            float value = a[base + offsets[k]];
+            sum += value;
+            dest[destPos + k - from] += value;
+        }
+        return sum;
+    }
+
+    /** Position of the lowest value among a[from] to a[to - 1], the first one in case of ties, or -1 if none is lower than Float.MAX_VALUE */
+    public int argmin(float[] a, int from, int to) {
+        int argmin = -1;
+        float min = Float.MAX_VALUE;
+        for (int k = from; k < to; k++) {
+            if (a[k] < min) {
+                min = a[k];
+                argmin = k;
+            }
+        }
+        return argmin;
+    }
+
+    /** Divides a[from] to a[to - 1] by divisor */
+    public void divide(float[] a, int from, int to, float divisor) {
+        for (int k = from; k < to; k++) {
+            a[k] /= divisor;
+        }
+    }
+
+    /** Number of values among a[0] to a[length - 1] which are lower than threshold */
+    public int countBelow(float[] a, int length, float threshold) {
+        int count = 0;
+        for (int k = 0; k < length; k++) {
+            if (a[k] < threshold) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Writes into dest, from destPos, in increasing order, the positions k below length where a[k] is lower than threshold. Returns their number */
+    public int indicesBelow(float[] a, int length, float threshold, int[] dest, int destPos) {
+        int position = destPos;
+        for (int k = 0; k < length; k++) {
+            if (a[k] < threshold) {
+                dest[position++] = k;
+            }
+        }
+        return position - destPos;
+    }
+
+    /** Sets bit k of bits, that is bit k % 64 of bits[k / 64], for each k below length where a[k] is lower than threshold */
+    public void setBitsBelow(float[] a, int length, float threshold, long[] bits) {
+        for (int k = 0; k < length; k++) {
+            if (a[k] < threshold) {
+                bits[k >>> 6] |= 1L << k;
+            }
+        }
+    }
+}
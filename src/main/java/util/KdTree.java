@@ -0,0 +1,184 @@
+package util;
+import java.util.Arrays;
+
+/**
+ * KD-tree over the vectors of a {@link VectorDistances}, to find the vectors within a radius of another one without
+ * computing its distances to all of them. It makes mean shift matrix-free: memory grows as N * D plus the neighbor
+ * lists, instead of N^2.
+ * <p>
+ * The tree is implicit in a permutation of the vectors: each node is a range of it, split at its median along the
+ * dimension of largest spread, with the median itself between both halves, down to ranges of {@link #LEAF_SIZE}. Only
+ * the split dimension of each node is kept, numbered as a heap. A search skips the half beyond the split when the
+ * difference along that single dimension already exceeds the radius (see {@link DistanceMetric#axisBound(float)}).
+ * Like any KD-tree, it prunes less as the number of dimensions grows.
+ */
+public class KdTree {
+
+    /** Ranges of at most this size are not split, but compared vector by vector */
+    static final int LEAF_SIZE = 16;
+
+    /** Relative slack on the bound of the pruning, so that rounding in the distances never loses a neighbor */
+    private static final float BOUND_SLACK = 1.0001F;
+
+    private final VectorDistances distances;
+    private final float[] vectors;
+    private final int dimensions;
+    private final int[] order;
+    private final int[] splitDimensions;
+
+    public KdTree(VectorDistances distances) {
+        this.distances = distances;
+        this.vectors = distances.getVectors();
+        this.dimensions = distances.getDimensions();
+        int n = distances.size();
+        this.order = MathUtils.rangeArray(n);
+        this.splitDimensions = new int[Integer.highestOneBit(Math.max(1, n / LEAF_SIZE)) * 4];
+        build(0, 0, n);
+    }
+
+    private void build(int node, int from, int to) {
+        if (to - from <= LEAF_SIZE) {
+            return;
+        }
+        int dimension = dimensionOfLargestSpread(from, to);
+        int mid = (from + to) >>> 1;
+        select(from, to, mid, dimension);
+        splitDimensions[node] = dimension;
+        build(2 * node + 1, from, mid);
+        build(2 * node + 2, mid + 1, to);
+    }
+
+    private int dimensionOfLargestSpread(int from, int to) {
+        int best = 0;
+        float bestSpread = -1;
+        for (int d = 0; d < dimensions; d++) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int k = from; k < to; k++) {
+                float value = vectors[order[k] * dimensions + d];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > bestSpread) {
+                bestSpread = max - min;
+                best = d;
+            }
+        }
+        return best;
+    }
+
+    /** Reorders order[from, to) so that position k has the vector it would have if sorted along dimension */
+    private void select(int from, int to, int k, int dimension) {
+        int lo = from;
+        int hi = to - 1;
+        while (hi > lo) {
+            float pivot = medianOfThree(coordinate(lo, dimension), coordinate((lo + hi) >>> 1, dimension), coordinate(hi, dimension));
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (coordinate(i, dimension) < pivot) {
+                    i++;
+                }
+                while (coordinate(j, dimension) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private float coordinate(int position, int dimension) {
+        return vectors[order[position] * dimensions + dimension];
+    }
+
+    private static float medianOfThree(float a, float b, float c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    /** Returns, in increasing order, the vectors whose distance to vector i is lower than radius, i itself included */
+    public int[] neighborsWithinRadius(int i, float radius) {
+        Neighbors found = new Neighbors(new int[LEAF_SIZE], 0);
+        search(i, radius, found);
+        int[] neighbors = Arrays.copyOf(found.indices, found.size);
+        Arrays.sort(neighbors);
+        return neighbors;
+    }
+
+    /** Number of vectors whose distance to vector i is lower than radius, without keeping them */
+    public int countWithinRadius(int i, float radius) {
+        Neighbors found = new Neighbors(null, 0);
+        search(i, radius, found);
+        return found.size;
+    }
+
+    /**
+     * Writes into dest, from destPos, in increasing order, the vectors whose distance to vector i is lower than radius.
+     * dest must have room for all of them, as counted by {@link #countWithinRadius(int, float)}. Returns their number.
+     */
+    public int neighborsWithinRadius(int i, float radius, int[] dest, int destPos) {
+        Neighbors found = new Neighbors(dest, destPos);
+        search(i, radius, found);
+        Arrays.sort(dest, destPos, found.size);
+        return found.size - destPos;
+    }
+
+    private void search(int i, float radius, Neighbors found) {
+        search(0, 0, order.length, i, radius, distances.getMetric().axisBound(radius) * BOUND_SLACK, found);
+    }
+
+    private void search(int node, int from, int to, int i, float radius, float bound, Neighbors found) {
+        if (to - from <= LEAF_SIZE) {
+            for (int k = from; k < to; k++) {
+                found.addIfWithin(order[k], i, radius);
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        int dimension = splitDimensions[node];
+        float difference = vectors[i * dimensions + dimension] - coordinate(mid, dimension);
+        // vectors before mid are not above the split, and those after it are not below it
+        if (difference <= bound) {
+            search(2 * node + 1, from, mid, i, radius, bound, found);
+        }
+        found.addIfWithin(order[mid], i, radius);
+        if (-difference <= bound) {
+            search(2 * node + 2, mid + 1, to, i, radius, bound, found);
+        }
+    }
+
+    /** Neighbors found by a search, put into indices from a given position, growing it if full. Only counted if it is null */
+    private class Neighbors {
+        int[] indices;
+        int size;
+
+        Neighbors(int[] indices, int size) {
+            this.indices = indices;
+            this.size = size;
+        }
+
+        void addIfWithin(int j, int i, float radius) {
+            if (distances.distance(i, j) < radius) {
+                if (indices != null) {
+                    if (size == indices.length) {
+                        indices = Arrays.copyOf(indices, size * 2);
+                    }
+                    indices[size] = j;
+                }
+                size++;
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package util;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -93,4 +94,65 @@ public class MathUtils
 		}
 		return total;
 	}
+
+	/**
+	 * Returns the kth lowest value among values[0] to values[length - 1], where k starts in 1. The values are reordered.
+	 * It is a quickselect, with median of three pivots, which falls back to sorting the remaining partition when it
+	 * does not shrink fast enough: linear time on average, and never worse than n log n.
+	 */
+	public static float kthLowest(float[] values, int length, int k) {
+		if (k < 1 || k > length) {
+			throw new IllegalArgumentException("k must be between 1 and " + length + ", got " + k);
+		}
+		int target = k - 1;
+		int left = 0;
+		int right = length - 1;
+		int remainingPartitions = 2 * (32 - Integer.numberOfLeadingZeros(length));
+		while (left < right) {
+			if (remainingPartitions-- == 0) {
+				Arrays.sort(values, left, right + 1);
+				break;
+			}
+			int mid = (left + right) >>> 1;
+			if (values[mid] < values[left]) {
+				swap(values, left, mid);
+			}
+			if (values[right] < values[left]) {
+				swap(values, left, right);
+			}
+			if (values[right] < values[mid]) {
+				swap(values, mid, right);
+			}
+			float pivot = values[mid];
+
+			// after partitioning, values[left..j] <= pivot, values[i..right] >= pivot, and the values between are the pivot
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (values[i] < pivot) {
+					i++;
+				}
+				while (values[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(values, i++, j--);
+				}
+			}
+			if (target <= j) {
+				right = j;
+			} else if (target >= i) {
+				left = i;
+			} else {
+				break;
+			}
+		}
+		return values[target];
+	}
+
+	private static void swap(float[] values, int i, int j) {
+		float value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
 }
@@ -2,44 +2,124 @@ package util;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.text.DecimalFormat;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.List;
-import com.google.common.primitives.Floats;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import util.storage.FloatStorage;
+import util.storage.StorageType;
 
+/**
+ * Matrix of floats, kept row-major in a {@link FloatStorage}: cell (i, j) is the value at index i * columns + j.
+ */
 public class Matrix {
 
-    private final float[][] values;
+    private final int lines;
+    private final int columns;
+    protected final FloatStorage storage;
 
     public Matrix(int lines, int columns) {
-        this(new float[lines][columns]);
+        this(lines, columns, StorageType.HEAP);
     }
 
+    public Matrix(int lines, int columns, StorageType storageType) {
+        this(lines, columns, storageType.allocate((long) lines * columns));
+    }
+
+    public Matrix(int lines, int columns, FloatStorage storage) {
+        this(lines, columns, storage, (long) lines * columns);
+    }
+
+    /** For subclasses which lay out cells in storage their own way, requiring 'size' values from it */
+    protected Matrix(int lines, int columns, FloatStorage storage, long size) {
+        if (storage.size() < size) {
+            throw new IllegalArgumentException("Storage of " + storage.size() + " values is too small for a " + lines + "x" + columns + " matrix");
+        }
+        this.lines = lines;
+        this.columns = columns;
+        this.storage = storage;
+    }
+
+    /** Creates a matrix with a copy of content */
     public Matrix(float[][] content) {
-        values = content;
+        this(content.length, content[0].length);
+        for (int i = 0; i < lines; i++) {
+            setValues(i, content[i]);
+        }
     }
 
     public int getLineNumber() {
-        return values.length;
+        return lines;
     }
 
     public int getColumnNumber() {
-        return values[0].length;
+        return columns;
+    }
+
+    /** Edge of the square tiles in which {@link #getLineSums(int[], int, int, float[])} evaluates a submatrix */
+    private static final int TILE = 128;
+
+    private long index(int i, int j) {
+        return (long) i * columns + j;
+    }
+
+    /** Index, in storage, from which cells (i, j) are found at offset j, at least for every j > i */
+    protected long upperLineBase(int i) {
+        return index(i, 0);
     }
 
     public float getValue(int i, int j) {
-        return values[i][j];
+        return storage.get(index(i, j));
     }
 
     public void setValue(int i, int j, float value) {
-        values[i][j] = value;
+        storage.set(index(i, j), value);
     }
 
+    /** Returns a copy of the values of line i */
     public float[] getValues(int i) {
-        return values[i];
+        return getValues(i, new float[columns]);
+    }
+
+    /** Copies the values of line i into dest, which is returned */
+    public float[] getValues(int i, float[] dest) {
+        storage.get(index(i, 0), dest, 0, columns);
+        return dest;
+    }
+
+    /** Overwrites line i with the given values */
+    public void setValues(int i, float[] values) {
+        storage.set(index(i, 0), values, 0, columns);
+    }
+
+    /** Returns a copy of this matrix, kept in a new storage of the given type */
+    public Matrix copy(StorageType storageType) {
+        Matrix m = new Matrix(lines, columns, allocate(storageType, (long) lines * columns, this));
+        float[] line = new float[columns];
+        for (int i = 0; i < lines; i++) {
+            m.setValues(i, getValues(i, line));
+        }
+        return m;
+    }
+
+    /** Allocates a storage of the given type for 'size' values copied from source, scanning their range if the type needs it */
+    protected static FloatStorage allocate(StorageType storageType, long size, Matrix source) {
+        if (!storageType.needsRange()) {
+            return storageType.allocate(size);
+        }
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        float[] line = new float[source.getColumnNumber()];
+        for (int i = 0; i < source.getLineNumber(); i++) {
+            source.getValues(i, line);
+            for (float value : line) {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+        return storageType.allocate(size, min, max);
     }
 
     /**
@@ -62,31 +142,126 @@ public class Matrix {
 
     /** For line i, returns the sum of its values */
     public float getLineSum(int i) {
-        float sum = 0;
-        for (int j = 0; j < getColumnNumber(); j++) {
-            sum += getValue(i, j);
-        }
-        return sum;
+        return storage.sum(index(i, 0), columns);
     }
 
     /** For line i, and for each j indicated, returns the sum of all these cell values */
     public float getLineSum(int i, Collection<Integer> js) {
+        long base = index(i, 0);
         float sum = 0;
         for (int j : js) {
-            sum += getValue(i, j);
+            sum += storage.get(base + j);
         }
         return sum;
     }
 
+    /** For line i, returns the sum of the cell values of columns js[from] to js[to - 1] */
+    public float getLineSum(int i, int[] js, int from, int to) {
+        return storage.sum(index(i, 0), js, from, to);
+    }
+
+    /**
+     * Same as {@link #getLineSum(int, int[], int, int)}, for non negative values, but it may stop once the sum exceeds
+     * limit, then returning a partial sum above limit. A sum not above limit is exactly the full sum.
+     */
+    public float getLineSum(int i, int[] js, int from, int to, float limit) {
+        return storage.sum(index(i, 0), js, from, to, limit);
+    }
+
+    /**
+     * Returns, among js[from] to js[to - 1], the index whose line has the lowest sum over these same columns, the first
+     * one in case of ties. For a distance matrix, it is the medoid: the point that best centers all of them.
+     */
+    public int getMedoid(int[] js, int from, int to) {
+        int medoid = -1;
+        float minSum = Float.MAX_VALUE;
+        for (int k = from; k < to; k++) {
+            int i = js[k];
+            float sum = getLineSum(i, js, from, to);
+            if (sum < minSum) {
+                minSum = sum;
+                medoid = i;
+            }
+        }
+        return medoid;
+    }
+
+    /**
+     * Same as {@link #getMedoid(int[], int, int)}, for non negative values, as distances, but abandoning the sum of a
+     * candidate once it cannot win: sums only grow as values are added, so a candidate loses as soon as its partial
+     * sum exceeds the lowest one found so far, or reaches it while being after the current medoid in js, which keeps
+     * ties. The point 'first', if among js, is evaluated before the others: a likely medoid, as the center of the
+     * neighborhood, lowers that bound from the start. The medoid found is exactly the same.
+     */
+    public int getMedoid(int[] js, int from, int to, int first) {
+        int firstPosition = -1;
+        for (int k = from; k < to && firstPosition < 0; k++) {
+            if (js[k] == first) {
+                firstPosition = k;
+            }
+        }
+        int medoidPosition = -1;
+        float minSum = Float.MAX_VALUE;
+        for (int n = firstPosition < 0 ? from : from - 1; n < to; n++) {
+            int k = n < from ? firstPosition : n;
+            if (n == firstPosition) {
+                continue; // evaluated first
+            }
+            float limit = k > medoidPosition ? Math.nextDown(minSum) : minSum;
+            float sum = getLineSum(js[k], js, from, to, limit);
+            if (sum < minSum || (sum == minSum && k < medoidPosition)) {
+                minSum = sum;
+                medoidPosition = k;
+            }
+        }
+        return medoidPosition < 0 ? -1 : js[medoidPosition];
+    }
+
+    /**
+     * For each k from 'from' to 'to' - 1, puts into sums[k - from] the sum of line js[k] over the columns js[from] to
+     * js[to - 1]. The matrix must be symmetric and js increasing: each cell of the upper triangle of the submatrix is
+     * read once and added to both its line and its column, halving the reads of
+     * {@link #getLineSum(int, int[], int, int)}. The submatrix is walked in square tiles, so the sums being updated
+     * stay in cache. Since values are added in another order, sums may differ from it in their last bits.
+     */
+    public void getLineSums(int[] js, int from, int to, float[] sums) {
+        Arrays.fill(sums, 0, to - from, 0);
+        for (int a0 = from; a0 < to; a0 += TILE) {
+            int a1 = Math.min(to, a0 + TILE);
+            for (int b0 = a0; b0 < to; b0 += TILE) {
+                int b1 = Math.min(to, b0 + TILE);
+                for (int a = a0; a < a1; a++) {
+                    int b = Math.max(b0, a + 1);
+                    sums[a - from] += storage.sumAndAdd(upperLineBase(js[a]), js, b, b1, sums, b - from);
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #getMedoid(int[], int, int)}, for a symmetric matrix and increasing js, but evaluating the line
+     * sums with {@link #getLineSums(int[], int, int, float[])}. sums must have room for to - from values.
+     */
+    public int getMedoid(int[] js, int from, int to, float[] sums) {
+        getLineSums(js, from, to, sums);
+        int medoid = -1;
+        float minSum = Float.MAX_VALUE;
+        for (int k = from; k < to; k++) {
+            if (sums[k - from] < minSum) {
+                minSum = sums[k - from];
+                medoid = js[k];
+            }
+        }
+        return medoid;
+    }
+
     /**
      * @return the sum for each line.
      */
     public float[] getLineSums() {
         float[] sumC = new float[getLineNumber()];
         for (int i = 0; i < getLineNumber(); i++) {
-            for (int j = 0; j < getColumnNumber(); j++) {
-                sumC[i] += getValue(i, j);
-            }
+            sumC[i] = getLineSum(i);
         }
         return sumC;
     }
@@ -108,33 +283,34 @@ public class Matrix {
         return result;
     }
 
+    /** Column of the lowest value of line lineIndex, the first one in case of ties, or -1 if none is lower than Float.MAX_VALUE */
     public int getArgminInLine(final int lineIndex) {
-        int argmin = -1;
-        float min = Float.MAX_VALUE;
-        for (int j = 0; j < getColumnNumber(); j++) {
-            float value = getValue(lineIndex, j);
-            if(value < min){
-                min = value;
-                argmin = j;
-            }
-        }
-        return argmin;
+        return storage.argmin(index(lineIndex, 0), columns);
     }
 
     public void divideLineValues(int i, float divider) {
-        for (int j = 0; j < getColumnNumber(); j++) {
-            setValue(i, j, getValue(i, j) / divider);
-        }
+        storage.divide(index(i, 0), columns, divider);
     }
 
-    /** Retrieves the Kth lowest value from line i, where both i and k starts in 1. */
+    /** Retrieves the Kth lowest value from line i, where k starts in 1. */
     public float getKthLowestValueInLine(int i, int k) {
-        List<Float> line = Floats.asList(getValues(i));
-        return DataStructureUtils.kthLowest(line, k);
+        return getKthLowestValueInLine(i, k, new float[columns]);
+    }
+
+    /** Retrieves the Kth lowest value from line i, where k starts in 1, using line as buffer for the values of the line */
+    public float getKthLowestValueInLine(int i, int k, float[] line) {
+        return MathUtils.kthLowest(getValues(i, line), columns, k);
+    }
+
+    /** Whether the values are paged in from disk, so that lines are best read once each, in order, as the clusterer then reads them */
+    public boolean isOutOfCore() {
+        return storage.isOutOfCore();
     }
 
     /** Releases any kind of open resource, such as files etc */
-    public void destroyResources(){}
+    public void destroyResources(){
+        storage.release();
+    }
 
     public void save(File file) {
         save(file, false, getLineNumber());
@@ -160,22 +336,55 @@ public class Matrix {
         }
     }
 
+    /** Writes this matrix in the binary format, see {@link BinaryMatrixFormat} */
+    public void saveBinary(File file) throws IOException {
+        BinaryMatrixFormat.save(this, file);
+    }
+
+    /**
+     * Reads a matrix in the binary format, see {@link BinaryMatrixFormat}.
+     * The matrix is backed by a read-only memory map of the file: nothing is copied, and pages are shared with the OS cache.
+     */
+    public static Matrix loadBinary(File file) throws IOException {
+        return BinaryMatrixFormat.load(file);
+    }
+
+    /** Reads a matrix in the binary format, copying its values into a new storage of the given type */
+    public static Matrix loadBinary(File file, StorageType storageType) throws IOException {
+        return BinaryMatrixFormat.load(file, storageType);
+    }
+
+    /** Reads a binary matrix larger than the memory, keeping up to cacheBytes of its values in memory, see {@link BinaryMatrixFormat#loadCached} */
+    public static Matrix loadCached(File file, long cacheBytes) throws IOException {
+        return BinaryMatrixFormat.loadCached(file, cacheBytes);
+    }
+
+    /** Same as {@link #load(File, ExecutorService)}, parsing text in the common fork join pool */
     public static Matrix load(File file) throws IOException, ParseException {
-        DecimalFormat format = FileUtils.getDecimalFormatter();
-
-        List<String> lines = Files.readAllLines(file.toPath(), Charset.defaultCharset());
-        int nLines = lines.size();
-        Matrix m = null;
-        for (int i = 0; i < nLines; i++) {
-            String[] linePieces = lines.get(i).split(",");
-            if(i == 0){
-                m = new Matrix(nLines, linePieces.length);
-            }
-            for (int j = 0; j < linePieces.length; j++) {
-                float v = format.parse(linePieces[j]).floatValue();
-                m.setValue(i, j, v);
-            }
+        return load(file, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Reads a matrix either in the binary format or as comma separated text, detected by the file header. Text is
+     * parsed in parallel with executorService, or serially if it is null, see {@link TextMatrixFormat}.
+     */
+    public static Matrix load(File file, ExecutorService executorService) throws IOException, ParseException {
+        if (BinaryMatrixFormat.isBinary(file)) {
+            return loadBinary(file);
         }
-        return m;
+        return TextMatrixFormat.load(file, StorageType.HEAP, executorService);
+    }
+
+    /** Same as {@link #load(File, StorageType, ExecutorService)}, parsing text in the common fork join pool */
+    public static Matrix load(File file, StorageType storageType) throws IOException, ParseException {
+        return load(file, storageType, ForkJoinPool.commonPool());
+    }
+
+    /** Reads a matrix either in the binary format or as comma separated text into a storage of the given type */
+    public static Matrix load(File file, StorageType storageType, ExecutorService executorService) throws IOException, ParseException {
+        if (BinaryMatrixFormat.isBinary(file)) {
+            return loadBinary(file, storageType);
+        }
+        return TextMatrixFormat.load(file, storageType, executorService);
     }
 }
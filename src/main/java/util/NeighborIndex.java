@@ -0,0 +1,208 @@
+package util;
+
+/**
+ * Neighbors of each point, kept in whichever form is smaller for its row. Sparse rows are lists in compressed sparse
+ * row layout: the neighbors of point p are neighbors[offsets[p]] to neighbors[offsets[p + 1] - 1], in increasing order.
+ * Dense rows, with more than one neighbor in {@link #DENSE_DIVISOR} points, are bitsets of one bit per point instead,
+ * 32 times smaller than their list would be at full density, and their list rows are empty.
+ * Points without computed neighbors just have an empty row.
+ * <p>
+ * Rows are read through {@link #size(int)}, a popcount for bitsets, {@link #copyNeighbors(int, int[])} and
+ * {@link #intersectionSize(int, int)}, whatever their form, or directly through {@link #getNeighbors()} and
+ * {@link #getBits(int)}.
+ */
+public class NeighborIndex {
+
+    /** A row is kept as a bitset when it has more than one neighbor in this many points: a bit per point is then smaller than an int per neighbor */
+    public static final int DENSE_DIVISOR = 32;
+
+    private static final FloatKernels KERNELS = FloatKernels.get();
+
+    private final int[] offsets;
+    private final int[] neighbors;
+    /** Bitset of each dense row, or null for list rows. The array itself is null if no row is dense */
+    private final long[][] bits;
+
+    public NeighborIndex(int[] offsets, int[] neighbors) {
+        this(offsets, neighbors, null);
+    }
+
+    private NeighborIndex(int[] offsets, int[] neighbors, long[][] bits) {
+        this.offsets = offsets;
+        this.neighbors = neighbors;
+        this.bits = bits;
+    }
+
+    /** Same as {@link #fromCounts(int[], boolean)}, choosing the form of each row */
+    public static NeighborIndex fromCounts(int[] counts) {
+        return fromCounts(counts, true);
+    }
+
+    /**
+     * Turns counts, where counts[p + 1] is the number of neighbors of point p and counts[0] is zero, into the offsets
+     * of each row, in place, and returns an index whose rows are still to be filled, by {@link #fillRow} or
+     * {@link #setRow}. If adaptive, dense rows are bitsets, otherwise all rows are lists.
+     */
+    public static NeighborIndex fromCounts(int[] counts, boolean adaptive) {
+        int numPoints = counts.length - 1;
+        long[][] bits = null;
+        if (adaptive) {
+            for (int p = 0; p < numPoints; p++) {
+                if (counts[p + 1] > numPoints / DENSE_DIVISOR) {
+                    if (bits == null) {
+                        bits = new long[numPoints][];
+                    }
+                    bits[p] = new long[(numPoints + 63) >>> 6];
+                    counts[p + 1] = 0;
+                }
+            }
+        }
+        long total = 0;
+        for (int p = 1; p < counts.length; p++) {
+            total += counts[p];
+            if (total > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Too many neighbors to be indexed: more than " + Integer.MAX_VALUE);
+            }
+            counts[p] = (int) total;
+        }
+        return new NeighborIndex(counts, new int[(int) total], bits);
+    }
+
+    public int getPointNumber() {
+        return offsets.length - 1;
+    }
+
+    /** Whether the row of point is a bitset, see {@link #getBits(int)} */
+    public boolean isDense(int point) {
+        return bits != null && bits[point] != null;
+    }
+
+    /** Bitset of the row of point, bit j of word j / 64 telling whether j is a neighbor, or null for a list row */
+    public long[] getBits(int point) {
+        return bits == null ? null : bits[point];
+    }
+
+    /** Position of the first neighbor of point in {@link #getNeighbors()}. Only for list rows */
+    public int start(int point) {
+        return offsets[point];
+    }
+
+    /** Position after the last neighbor of point in {@link #getNeighbors()}. Only for list rows */
+    public int end(int point) {
+        return offsets[point + 1];
+    }
+
+    /** Number of neighbors of point */
+    public int size(int point) {
+        long[] row = getBits(point);
+        if (row == null) {
+            return offsets[point + 1] - offsets[point];
+        }
+        int size = 0;
+        for (long word : row) {
+            size += Long.bitCount(word);
+        }
+        return size;
+    }
+
+    /** Copies the neighbors of point, in increasing order, into dest, from its start. Returns their number */
+    public int copyNeighbors(int point, int[] dest) {
+        long[] row = getBits(point);
+        if (row == null) {
+            int size = offsets[point + 1] - offsets[point];
+            System.arraycopy(neighbors, offsets[point], dest, 0, size);
+            return size;
+        }
+        int size = 0;
+        for (int w = 0; w < row.length; w++) {
+            for (long word = row[w]; word != 0; word &= word - 1) {
+                dest[size++] = (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return size;
+    }
+
+    /** Number of neighbors shared by points p and q, computed on the bitsets themselves when both rows are dense */
+    public int intersectionSize(int p, int q) {
+        long[] pBits = getBits(p);
+        long[] qBits = getBits(q);
+        if (pBits != null && qBits != null) {
+            int size = 0;
+            for (int w = 0; w < pBits.length; w++) {
+                size += Long.bitCount(pBits[w] & qBits[w]);
+            }
+            return size;
+        }
+        if (pBits != null || qBits != null) {
+            long[] dense = pBits != null ? pBits : qBits;
+            int list = pBits != null ? q : p;
+            int size = 0;
+            for (int k = offsets[list]; k < offsets[list + 1]; k++) {
+                size += (int) (dense[neighbors[k] >>> 6] >>> neighbors[k]) & 1;
+            }
+            return size;
+        }
+        int size = 0;
+        for (int a = offsets[p], b = offsets[q]; a < offsets[p + 1] && b < offsets[q + 1];) {
+            if (neighbors[a] < neighbors[b]) {
+                a++;
+            } else if (neighbors[a] > neighbors[b]) {
+                b++;
+            } else {
+                size++;
+                a++;
+                b++;
+            }
+        }
+        return size;
+    }
+
+    /** Fills the row of point with the indices j, below length, for which line[j] is lower than radius */
+    public void fillRow(int point, float[] line, int length, float radius) {
+        long[] row = getBits(point);
+        if (row == null) {
+            KERNELS.indicesBelow(line, length, radius, neighbors, offsets[point]);
+        } else {
+            KERNELS.setBitsBelow(line, length, radius, row);
+        }
+    }
+
+    /** Fills the row of point with src[from] to src[to - 1], which must be increasing */
+    public void setRow(int point, int[] src, int from, int to) {
+        long[] row = getBits(point);
+        if (row == null) {
+            System.arraycopy(src, from, neighbors, offsets[point], to - from);
+        } else {
+            for (int k = from; k < to; k++) {
+                row[src[k] >>> 6] |= 1L << src[k];
+            }
+        }
+    }
+
+    /** The neighbors of all list rows, row after row. It is the backing array, not a copy */
+    public int[] getNeighbors() {
+        return neighbors;
+    }
+
+    /** Number of rows kept as bitsets */
+    public int getDenseRowNumber() {
+        int dense = 0;
+        for (int p = 0; bits != null && p < bits.length; p++) {
+            if (bits[p] != null) {
+                dense++;
+            }
+        }
+        return dense;
+    }
+
+    /** Total number of neighbors kept, over all points */
+    public long getTotalSize() {
+        long total = neighbors.length;
+        for (int p = 0; bits != null && p < bits.length; p++) {
+            if (bits[p] != null) {
+                total += size(p);
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,231 @@
+package util;
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import util.storage.FloatStorage;
+import util.storage.StorageType;
+
+/**
+ * Square matrix which is symmetric and has a zero diagonal, as a distance matrix.
+ * Only the strict upper triangle is stored, packed row by row: N(N-1)/2 values instead of N^2.
+ * Cell (i, j), for i < j, is the value at index i * (2N - i - 1) / 2 + (j - i - 1); cell (j, i) is the same value.
+ * <p>
+ * A line i is then split in two parts: columns j < i are found in the previous packed rows, one value in each,
+ * while columns j > i are contiguous in packed row i. The line methods walk both parts incrementally.
+ */
+public class SymmetricMatrix extends Matrix {
+
+    private final int n;
+
+    public SymmetricMatrix(int n) {
+        this(n, StorageType.HEAP);
+    }
+
+    public SymmetricMatrix(int n, StorageType storageType) {
+        this(n, storageType.allocate(packedSize(n)));
+    }
+
+    public SymmetricMatrix(int n, FloatStorage storage) {
+        super(n, n, storage, packedSize(n));
+        this.n = n;
+    }
+
+    /** Creates a symmetric matrix with the upper triangle of m. The lower triangle and the diagonal of m are ignored */
+    public static SymmetricMatrix of(Matrix m, StorageType storageType) {
+        if (m.getLineNumber() != m.getColumnNumber()) {
+            throw new IllegalArgumentException("Matrix is not square: " + m.getLineNumber() + "x" + m.getColumnNumber());
+        }
+        int n = m.getLineNumber();
+        SymmetricMatrix symmetric = new SymmetricMatrix(n, allocate(storageType, packedSize(n), m));
+        float[] line = new float[n];
+        for (int i = 0; i < n; i++) {
+            m.getValues(i, line);
+            symmetric.storage.set(symmetric.rowStart(i), line, i + 1, n - i - 1);
+        }
+        return symmetric;
+    }
+
+    @Override
+    public SymmetricMatrix copy(StorageType storageType) {
+        return of(this, storageType);
+    }
+
+    /** Number of values kept for a matrix of n lines */
+    public static long packedSize(int n) {
+        return (long) n * (n - 1) / 2;
+    }
+
+    /** Index, in storage, of cell (i, i + 1): the start of packed row i */
+    private long rowStart(int i) {
+        return (long) i * (2L * n - i - 1) / 2;
+    }
+
+    /** Index, in storage, of cell (i, j), for i < j */
+    private long packedIndex(int i, int j) {
+        return rowStart(i) + (j - i - 1);
+    }
+
+    @Override
+    protected long upperLineBase(int i) {
+        return rowStart(i) - i - 1;
+    }
+
+    @Override
+    public float getValue(int i, int j) {
+        if (i < j) {
+            return storage.get(packedIndex(i, j));
+        }
+        if (i > j) {
+            return storage.get(packedIndex(j, i));
+        }
+        return 0;
+    }
+
+    /** Sets both cells (i, j) and (j, i). Cells of the diagonal can only be zero */
+    @Override
+    public void setValue(int i, int j, float value) {
+        if (i < j) {
+            storage.set(packedIndex(i, j), value);
+        } else if (i > j) {
+            storage.set(packedIndex(j, i), value);
+        } else if (value != 0) {
+            throw new IllegalArgumentException("Diagonal of a symmetric matrix must be zero, got " + value + " at " + i);
+        }
+    }
+
+    @Override
+    public float[] getValues(int i, float[] dest) {
+        // columns before i: cell (j, i) of each previous packed row, whose distance grows by one at each row
+        long index = i - 1;
+        for (int j = 0; j < i; j++) {
+            dest[j] = storage.get(index);
+            index += n - j - 2;
+        }
+        dest[i] = 0;
+        storage.get(rowStart(i), dest, i + 1, n - i - 1);
+        return dest;
+    }
+
+    /** Overwrites line i, and so column i. The value at the diagonal is ignored */
+    @Override
+    public void setValues(int i, float[] values) {
+        long index = i - 1;
+        for (int j = 0; j < i; j++) {
+            storage.set(index, values[j]);
+            index += n - j - 2;
+        }
+        storage.set(rowStart(i), values, i + 1, n - i - 1);
+    }
+
+    /** Overwrites columns i + 1 to N - 1 of line i, the part of it kept in packed row i, with the same columns of values */
+    public void setUpperValues(int i, float[] values) {
+        storage.set(rowStart(i), values, i + 1, n - i - 1);
+    }
+
+    /** For line i, returns the sum of its values. Values are added in column order, as in a dense matrix */
+    @Override
+    public float getLineSum(int i) {
+        float sum = 0;
+        long index = i - 1;
+        for (int j = 0; j < i; j++) {
+            sum += storage.get(index);
+            index += n - j - 2;
+        }
+        index = rowStart(i);
+        for (int j = i + 1; j < n; j++) {
+            sum += storage.get(index++);
+        }
+        return sum;
+    }
+
+    @Override
+    public float getLineSum(int i, Collection<Integer> js) {
+        float sum = 0;
+        for (int j : js) {
+            sum += getValue(i, j);
+        }
+        return sum;
+    }
+
+    @Override
+    public float getLineSum(int i, int[] js, int from, int to) {
+        return getPackedLineSum(i, js, from, to, Float.POSITIVE_INFINITY);
+    }
+
+    @Override
+    public int getArgminInLine(int i) {
+        int argmin = -1;
+        float min = Float.MAX_VALUE;
+        for (int j = 0; j < n; j++) {
+            float value = getValue(i, j);
+            if (value < min) {
+                min = value;
+                argmin = j;
+            }
+        }
+        return argmin;
+    }
+
+    @Override
+    public float getLineSum(int i, int[] js, int from, int to, float limit) {
+        return getPackedLineSum(i, js, from, to, limit);
+    }
+
+    /**
+     * Sum of line i over columns js[from] to js[to - 1], added in their order, and stopping once it exceeds limit, as
+     * the pruned medoid search asks. Columns after i are read from packed row i, at a fixed base, and columns before
+     * it from their own packed rows, so that no cell goes through the branches and index arithmetic of getValue.
+     */
+    private float getPackedLineSum(int i, int[] js, int from, int to, float limit) {
+        long base = upperLineBase(i);
+        float sum = 0;
+        for (int k = from; k < to && sum <= limit; k++) {
+            int j = js[k];
+            if (j > i) {
+                sum += storage.get(base + j);
+            } else if (j < i) {
+                sum += storage.get(upperLineBase(j) + i);
+            }
+        }
+        return sum;
+    }
+
+    /** Divides line i, and so column i, as {@link #setValues(int, float[])} overwrites them. The diagonal stays zero */
+    @Override
+    public void divideLineValues(int i, float divider) {
+        long index = i - 1;
+        for (int j = 0; j < i; j++) {
+            storage.set(index, storage.get(index) / divider);
+            index += n - j - 2;
+        }
+        storage.divide(rowStart(i), n - i - 1, divider);
+    }
+
+    /** Writes the upper triangle as text, line i holding columns i+1 to N-1, as {@link #load(File, StorageType)} reads */
+    public void saveTriangular(File file) {
+        save(file, true, n - 1);
+    }
+
+    /**
+     * Reads a symmetric matrix from a binary file or from text. Text may either be the upper triangle layout written by
+     * {@link #saveTriangular(File)}, where line i holds columns i+1 to N-1, or a full square matrix, of which only the
+     * upper triangle is kept. It is parsed in parallel, in the common fork join pool.
+     */
+    public static SymmetricMatrix load(File file, StorageType storageType) throws IOException, ParseException {
+        return load(file, storageType, ForkJoinPool.commonPool());
+    }
+
+    /** Same as {@link #load(File, StorageType)}, parsing text with executorService, or serially if it is null, see {@link TextMatrixFormat#loadSymmetric} */
+    public static SymmetricMatrix load(File file, StorageType storageType, ExecutorService executorService) throws IOException, ParseException {
+        if (BinaryMatrixFormat.isBinary(file)) {
+            Matrix mapped = BinaryMatrixFormat.load(file);
+            SymmetricMatrix m = of(mapped, storageType);
+            mapped.destroyResources();
+            return m;
+        }
+        return TextMatrixFormat.loadSymmetric(file, storageType, executorService);
+    }
+}
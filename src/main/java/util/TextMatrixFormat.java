@@ -0,0 +1,423 @@
+package util;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import util.parallel.LongRangeAction;
+import util.parallel.Parallel;
+import util.parallel.Schedule;
+import util.storage.StorageType;
+
+/**
+ * Reader of matrices as comma separated text, one line of the matrix per line of the file, as written by
+ * {@link Matrix#save(File)}, or of symmetric matrices from the upper triangle written by
+ * {@link SymmetricMatrix#saveTriangular(File)}, whose line i holds columns i+1 to N-1.
+ * <p>
+ * The file is memory mapped and split in chunks of {@link #CHUNK_SIZE} bytes, parsed in parallel. Each chunk parses the
+ * lines which start in it, so a line belongs to exactly one chunk, and it finds the index of its first line from a
+ * previous parallel count of the line breaks of each chunk. Values are parsed right from the bytes, without creating
+ * strings, and written straight into the storage of the matrix. Each task maps only its chunk and the rest of its
+ * last line, so that the mappings alive at once stay small, whatever the size of the file.
+ */
+public class TextMatrixFormat {
+
+    /** Number of bytes of each chunk parsed by a task */
+    static final int CHUNK_SIZE = 1 << 22;
+
+    /** Number of bytes mapped at first past a chunk, for the rest of its last line */
+    static final int OVERHANG = 1 << 20;
+
+    /** Exact powers of ten as doubles: up to 10^22, a double holds them with no rounding */
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int k = 1; k < POWERS_OF_TEN.length; k++) {
+            POWERS_OF_TEN[k] = POWERS_OF_TEN[k - 1] * 10;
+        }
+    }
+
+    /** Highest mantissa which a double holds exactly, 2^53 */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    /** Same as {@link #load(File, StorageType, ExecutorService)}, in the common fork join pool, for callers without a pool of their own */
+    public static Matrix load(File file, StorageType storageType) throws IOException, ParseException {
+        return load(file, storageType, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Reads file in parallel with executorService, or serially if it is null. Lines with a number of values other than
+     * that of the first line, as well as values which are not numbers, are reported by a ParseException whose error
+     * offset is the index of the line.
+     */
+    public static Matrix load(File file, StorageType storageType, ExecutorService executorService) throws IOException, ParseException {
+        return load(file, storageType, executorService, false);
+    }
+
+    /** Same as {@link #loadSymmetric(File, StorageType, ExecutorService)}, in the common fork join pool, for callers without a pool of their own */
+    public static SymmetricMatrix loadSymmetric(File file, StorageType storageType) throws IOException, ParseException {
+        return loadSymmetric(file, storageType, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Same as {@link #load(File, StorageType, ExecutorService)}, for a symmetric matrix, either as its upper triangle,
+     * where line i holds columns i+1 to N-1, or as a full square matrix, of which only the upper triangle is kept. The
+     * triangle is told apart by its second line, shorter than the first. A file of a single value, without a second
+     * line, is a 1x1 matrix if it is zero, its diagonal, or otherwise the triangle of 2 points.
+     */
+    public static SymmetricMatrix loadSymmetric(File file, StorageType storageType, ExecutorService executorService) throws IOException, ParseException {
+        return (SymmetricMatrix) load(file, storageType, executorService, true);
+    }
+
+    private static Matrix load(File file, StorageType storageType, ExecutorService executorService, boolean symmetric) throws IOException, ParseException {
+        if (storageType.needsRange()) {
+            Matrix heap = load(file, StorageType.HEAP, executorService, symmetric);
+            return heap.copy(storageType);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long end = contentEnd(channel);
+            if (end == 0) {
+                throw new ParseException("Empty matrix file: " + file, 0);
+            }
+            final int chunks = (int) ((end + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+            // index of the first line starting in each chunk, from the number of lines starting in the previous ones
+            final long[] firstLine = new long[chunks + 1];
+            forEachChunk(chunks, executorService, new LongRangeAction() {
+                public void doAction(long from, long to) {
+                    for (long chunk = from; chunk < to; chunk++) {
+                        firstLine[(int) chunk + 1] = countLineStarts(mapChunk(channel, chunk, end, false), chunk == 0, chunkLength(chunk, end));
+                    }
+                }
+            });
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                firstLine[chunk + 1] += firstLine[chunk];
+            }
+            if (firstLine[chunks] > Integer.MAX_VALUE) {
+                throw new ParseException("Too many lines in " + file + ": " + firstLine[chunks], Integer.MAX_VALUE);
+            }
+            final int lines = (int) firstLine[chunks];
+            final int columns;
+            final boolean triangle;
+            final Matrix m;
+            ByteBuffer firstLines = mapLines(channel, 0, 0, 2, end);
+            if (symmetric) {
+                triangle = isTriangle(firstLines);
+                columns = countValues(firstLines, 0, firstLines.limit()) + (triangle ? 1 : 0);
+                if (lines != (triangle ? columns - 1 : columns)) {
+                    throw new ParseException(file + ": " + lines + " lines for a " + (triangle ? "triangle" : "square matrix")
+                        + " of " + columns + " points", lines);
+                }
+                m = new SymmetricMatrix(columns, storageType);
+            } else {
+                triangle = false;
+                columns = countValues(firstLines, 0, firstLines.limit());
+                m = new Matrix(lines, columns, storageType);
+            }
+            final ParseException[] firstError = new ParseException[1];
+            forEachChunk(chunks, executorService, new LongRangeAction() {
+                public void doAction(long from, long to) {
+                    float[] row = new float[columns];
+                    for (long chunk = from; chunk < to; chunk++) {
+                        boolean startsLines = firstLine[(int) chunk + 1] > firstLine[(int) chunk];
+                        ParseException error = parseChunk(mapChunk(channel, chunk, end, startsLines), chunk == 0, chunkLength(chunk, end),
+                            (int) firstLine[(int) chunk], m, row, triangle);
+                        if (error != null) {
+                            synchronized (firstError) {
+                                if (firstError[0] == null || error.getErrorOffset() < firstError[0].getErrorOffset()) {
+                                    firstError[0] = error;
+                                }
+                            }
+                        }
+                    }
+                }
+            });
+            if (firstError[0] != null) {
+                m.destroyResources();
+                throw new ParseException(file + ": " + firstError[0].getMessage(), firstError[0].getErrorOffset());
+            }
+            return m;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    /** Runs action over the chunk indices, in parallel with executorService, or serially if it is null */
+    private static void forEachChunk(int chunks, ExecutorService executorService, LongRangeAction action) {
+        if (executorService == null) {
+            action.doAction(0, chunks);
+        } else {
+            Parallel.ForLong(0L, chunks, executorService, Schedule.DYNAMIC, 1L, action);
+        }
+    }
+
+    /** Size of the file without its trailing blanks and line breaks, which do not make lines */
+    private static long contentEnd(FileChannel channel) throws IOException {
+        long end = channel.size();
+        ByteBuffer last = ByteBuffer.allocate(1);
+        while (end > 0) {
+            last.clear();
+            channel.read(last, end - 1);
+            if (!isBlank(last.get(0)) && last.get(0) != '\n') {
+                break;
+            }
+            end--;
+        }
+        return end;
+    }
+
+    private static int chunkLength(long chunk, long end) {
+        return (int) Math.min(CHUNK_SIZE, end - chunk * CHUNK_SIZE);
+    }
+
+    /**
+     * Maps the chunk, from the byte before it, so that position 0 tells whether a line starts at the chunk (except for
+     * the first chunk, mapped from the start of the file). If withLastLine, the mapping goes on past the chunk up to
+     * the line break which ends the last line starting in it (see {@link #mapLines}).
+     */
+    private static ByteBuffer mapChunk(FileChannel channel, long chunk, long end, boolean withLastLine) {
+        long start = Math.max(0, chunk * CHUNK_SIZE - 1);
+        long chunkEnd = Math.min(end, (chunk + 1) * CHUNK_SIZE);
+        return withLastLine ? mapLines(channel, start, chunkEnd - 1, 1, end) : map(channel, start, chunkEnd);
+    }
+
+    /**
+     * Maps the file from start up to the given number of line breaks at or after 'from', or up to the end of the
+     * content, or 2GB, beyond which a line cannot go. It first maps {@link #OVERHANG} bytes past 'from', and twice as
+     * many each time the lines go on further, so that each task maps little more than its chunk, however large the file.
+     */
+    private static ByteBuffer mapLines(FileChannel channel, long start, long from, int lineBreaks, long end) {
+        long limit = Math.min(end, start + Integer.MAX_VALUE);
+        long overhang = OVERHANG;
+        long scanned = from;
+        while (true) {
+            long mapEnd = Math.min(limit, from + overhang);
+            ByteBuffer buffer = map(channel, start, mapEnd);
+            for (; scanned < mapEnd; scanned++) {
+                if (buffer.get((int) (scanned - start)) == '\n' && --lineBreaks == 0) {
+                    return buffer;
+                }
+            }
+            if (mapEnd == limit) {
+                return buffer;
+            }
+            overhang *= 2;
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long start, long end) {
+        try {
+            return channel.map(MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Number of lines starting in the chunk, which has 'length' bytes after the byte before it, if not the first one */
+    private static long countLineStarts(ByteBuffer buffer, boolean first, int length) {
+        long starts = first ? 1 : 0;
+        int offset = first ? 0 : 1;
+        for (int p = offset; p < offset + length - 1; p++) {
+            if (buffer.get(p) == '\n') {
+                starts++;
+            }
+        }
+        if (!first && buffer.get(0) == '\n') {
+            starts++;
+        }
+        return starts;
+    }
+
+    /**
+     * Whether the symmetric matrix which starts at the beginning of buffer is written as its upper triangle: its second
+     * line has fewer values than the first, or, without a second line, its single value is not zero.
+     */
+    private static boolean isTriangle(ByteBuffer buffer) {
+        int end = buffer.limit();
+        int secondLine = 0;
+        while (secondLine < end && buffer.get(secondLine) != '\n') {
+            secondLine++;
+        }
+        int firstValues = countValues(buffer, 0, end);
+        if (secondLine < end) {
+            return countValues(buffer, secondLine + 1, end) < firstValues;
+        }
+        try {
+            return firstValues == 1 && parseFloat(buffer, 0, secondLine) != 0;
+        } catch (NumberFormatException e) {
+            return false; // reported when the line is parsed
+        }
+    }
+
+    /**
+     * Parses each line starting in the chunk into the given line of m, and the next ones, through row.
+     * Into a SymmetricMatrix, only the upper triangle of each line is written; if triangle, line i of the file only
+     * holds it, columns i+1 to N-1. Returns the error of the first line which could not be parsed, or null.
+     */
+    private static ParseException parseChunk(ByteBuffer buffer, boolean first, int length, int line, Matrix m, float[] row, boolean triangle) {
+        int offset = first ? 0 : 1;
+        int p = offset;
+        if (!first) {
+            while (p < offset + length && buffer.get(p - 1) != '\n') {
+                p++;
+            }
+        }
+        int limit = buffer.limit();
+        for (; p < offset + length; line++) {
+            int skipped = triangle ? line + 1 : 0;
+            int values = skipped;
+            int valueStart = p;
+            while (true) {
+                int valueEnd = valueStart;
+                byte b = 0;
+                while (valueEnd < limit && (b = buffer.get(valueEnd)) != ',' && b != '\n') {
+                    valueEnd++;
+                }
+                if (values < row.length) {
+                    try {
+                        row[values] = parseFloat(buffer, valueStart, valueEnd);
+                    } catch (NumberFormatException e) {
+                        return new ParseException("line " + (line + 1) + ", value " + (values - skipped + 1) + ": " + e.getMessage(), line);
+                    }
+                }
+                values++;
+                if (valueEnd == limit || b == '\n') {
+                    p = valueEnd + 1;
+                    break;
+                }
+                valueStart = valueEnd + 1;
+            }
+            if (values != row.length) {
+                return new ParseException("line " + (line + 1) + " has " + (values - skipped) + " values, instead of " + (row.length - skipped), line);
+            }
+            if (m instanceof SymmetricMatrix) {
+                ((SymmetricMatrix) m).setUpperValues(line, row);
+            } else {
+                m.setValues(line, row);
+            }
+        }
+        return null;
+    }
+
+    /** Number of comma separated values of the line from 'from' up to the line break at or after 'to' */
+    private static int countValues(ByteBuffer buffer, long from, long to) {
+        int values = 1;
+        for (int p = (int) from; p < to; p++) {
+            byte b = buffer.get(p);
+            if (b == '\n') {
+                break;
+            }
+            if (b == ',') {
+                values++;
+            }
+        }
+        return values;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    /**
+     * Parses the decimal number of the bytes from 'from' to 'to', ignoring blanks around it, as
+     * {@code (float) Double.parseDouble}. The digits are read into a long mantissa, which is divided or multiplied by an
+     * exact power of ten when both are exact as doubles, giving the correctly rounded double. Other numbers, as those
+     * with more than 15 significant digits, NaN or Infinity, fall back to Double.parseDouble.
+     */
+    static float parseFloat(ByteBuffer buffer, int from, int to) {
+        while (from < to && isBlank(buffer.get(from))) {
+            from++;
+        }
+        while (to > from && isBlank(buffer.get(to - 1))) {
+            to--;
+        }
+        int p = from;
+        boolean negative = false;
+        if (p < to && (buffer.get(p) == '-' || buffer.get(p) == '+')) {
+            negative = buffer.get(p) == '-';
+            p++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean exact = true;
+        for (; p < to; p++) {
+            int digit = buffer.get(p) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            digits++;
+            if (mantissa < MAX_EXACT_MANTISSA) {
+                mantissa = mantissa * 10 + digit;
+            } else {
+                exact = false;
+            }
+        }
+        if (p < to && buffer.get(p) == '.') {
+            for (p++; p < to; p++) {
+                int digit = buffer.get(p) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                digits++;
+                if (mantissa < MAX_EXACT_MANTISSA) {
+                    mantissa = mantissa * 10 + digit;
+                    exponent--;
+                } else {
+                    exact = false;
+                }
+            }
+        }
+        if (digits > 0 && p < to && (buffer.get(p) == 'e' || buffer.get(p) == 'E')) {
+            int q = p + 1;
+            boolean negativeExponent = false;
+            if (q < to && (buffer.get(q) == '-' || buffer.get(q) == '+')) {
+                negativeExponent = buffer.get(q) == '-';
+                q++;
+            }
+            int e = 0;
+            int exponentDigits = 0;
+            for (; q < to; q++) {
+                int digit = buffer.get(q) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                exponentDigits++;
+                e = Math.min(e * 10 + digit, 100000);
+            }
+            if (exponentDigits > 0) {
+                exponent += negativeExponent ? -e : e;
+                p = q;
+            }
+        }
+        if (digits == 0 || p != to || !exact || mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+            return parseFloatSlowly(buffer, from, to);
+        }
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return (float) (negative ? -value : value);
+    }
+
+    private static float parseFloatSlowly(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int k = 0; k < bytes.length; k++) {
+            bytes[k] = buffer.get(from + k);
+        }
+        String text = new String(bytes, StandardCharsets.ISO_8859_1);
+        try {
+            return (float) Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("not a number: '" + text + "'");
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package util;
+import java.util.concurrent.ExecutorService;
+import util.parallel.Buffers;
+import util.parallel.IntRangeAction;
+import util.parallel.Parallel;
+import util.parallel.Schedule;
+import util.storage.FloatStorage;
+import util.storage.StorageType;
+
+/**
+ * Distances among N feature vectors of D dimensions, under a {@link DistanceMetric}. They are either computed on the
+ * fly, by a matrix reading them from the vectors, or materialized once into a {@link SymmetricMatrix}.
+ * <p>
+ * Materialization goes over the upper triangle in blocks of {@link #BLOCK_LINES} lines, each block in tiles of
+ * {@link #TILE_COLUMNS} columns: the vectors of a tile stay in cache while they are compared to every line of the block.
+ */
+public class VectorDistances {
+
+    /** Lines of the blocks of the upper triangle computed by a task */
+    static final int BLOCK_LINES = 16;
+
+    /** Columns of the tiles of a block, whose vectors are compared to each line of the block in turn */
+    static final int TILE_COLUMNS = 256;
+
+    private final int n;
+    private final int dimensions;
+    /** Vectors, one after the other, as prepared by the metric */
+    private final float[] vectors;
+    private final DistanceMetric metric;
+
+    /** Takes a copy of vectors, which must all have the same length */
+    public VectorDistances(float[][] vectors, DistanceMetric metric) {
+        this(flatten(vectors), vectors.length == 0 ? 0 : vectors[0].length, metric);
+    }
+
+    /** Takes the vectors of 'dimensions' values, one after the other, in a single array. COSINE copies it */
+    public VectorDistances(float[] vectors, int dimensions, DistanceMetric metric) {
+        if (dimensions < 1 || vectors.length % dimensions != 0) {
+            throw new IllegalArgumentException("Array of " + vectors.length + " values does not hold vectors of " + dimensions + " dimensions");
+        }
+        this.n = vectors.length / dimensions;
+        this.dimensions = dimensions;
+        this.vectors = metric.prepare(vectors, dimensions);
+        this.metric = metric;
+    }
+
+    private static float[] flatten(float[][] vectors) {
+        int dimensions = vectors.length == 0 ? 0 : vectors[0].length;
+        float[] flat = new float[Math.multiplyExact(vectors.length, dimensions)];
+        for (int i = 0; i < vectors.length; i++) {
+            if (vectors[i].length != dimensions) {
+                throw new IllegalArgumentException("Vector " + i + " has " + vectors[i].length + " dimensions, instead of " + dimensions);
+            }
+            System.arraycopy(vectors[i], 0, flat, i * dimensions, dimensions);
+        }
+        return flat;
+    }
+
+    /** Number of vectors */
+    public int size() {
+        return n;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public DistanceMetric getMetric() {
+        return metric;
+    }
+
+    /** The vectors as prepared by the metric, one after the other. It is the backing array, not a copy */
+    float[] getVectors() {
+        return vectors;
+    }
+
+    /** Distance between vectors i and j, zero when they are the same */
+    public float distance(int i, int j) {
+        return i == j ? 0 : metric.distance(vectors, i * dimensions, vectors, j * dimensions, dimensions);
+    }
+
+    /** Puts into dest, from destPos, the distances of vector i to the vectors from 'from' to 'to' - 1 */
+    public void distances(int i, int from, int to, float[] dest, int destPos) {
+        int iOffset = i * dimensions;
+        for (int j = from; j < to; j++) {
+            dest[destPos + j - from] = j == i ? 0 : metric.distance(vectors, iOffset, vectors, j * dimensions, dimensions);
+        }
+    }
+
+    /**
+     * Returns an N x N matrix whose values are computed from the vectors each time they are read. It takes no memory
+     * beyond the vectors, but every read costs a distance, of D operations. It cannot be changed.
+     */
+    public Matrix onTheFly() {
+        return new Matrix(n, n, new DistanceStorage());
+    }
+
+    /**
+     * Computes the distances into a new SymmetricMatrix of the given storage type, with executorService, or serially if
+     * it is null.
+     */
+    public SymmetricMatrix materialize(StorageType storageType, ExecutorService executorService) {
+        if (storageType.needsRange()) {
+            SymmetricMatrix heap = materialize(StorageType.HEAP, executorService);
+            SymmetricMatrix m = heap.copy(storageType);
+            heap.destroyResources();
+            return m;
+        }
+        final SymmetricMatrix m = new SymmetricMatrix(n, storageType);
+        final int blocks = (n + BLOCK_LINES - 1) / BLOCK_LINES;
+        final Buffers<float[][]> lines = new Buffers<>(() -> new float[BLOCK_LINES][n]);
+        IntRangeAction action = new IntRangeAction() {
+            public void doAction(int fromBlock, int toBlock) {
+                float[][] block = lines.take();
+                for (int b = fromBlock; b < toBlock; b++) {
+                    computeBlock(m, b * BLOCK_LINES, Math.min(n, (b + 1) * BLOCK_LINES), block);
+                }
+                lines.give(block);
+            }
+        };
+        if (executorService == null) {
+            action.doAction(0, blocks);
+        } else {
+            // blocks get shorter down the triangle, so they are taken one at a time
+            Parallel.For(0, blocks, executorService, Schedule.DYNAMIC, 1, action);
+        }
+        return m;
+    }
+
+    /** Computes the upper triangle of lines i0 to i1 - 1, tile by tile, and writes it into m */
+    private void computeBlock(SymmetricMatrix m, int i0, int i1, float[][] block) {
+        for (int j0 = i0 + 1; j0 < n; j0 += TILE_COLUMNS) {
+            int j1 = Math.min(n, j0 + TILE_COLUMNS);
+            for (int i = i0; i < i1; i++) {
+                int iOffset = i * dimensions;
+                float[] line = block[i - i0];
+                for (int j = Math.max(j0, i + 1); j < j1; j++) {
+                    line[j] = metric.distance(vectors, iOffset, vectors, j * dimensions, dimensions);
+                }
+            }
+        }
+        for (int i = i0; i < i1; i++) {
+            m.setUpperValues(i, block[i - i0]);
+        }
+    }
+
+    /** Read-only storage of the dense N x N layout of {@link Matrix}, computing each value from the vectors */
+    private class DistanceStorage implements FloatStorage {
+
+        @Override
+        public long size() {
+            return (long) n * n;
+        }
+
+        @Override
+        public float get(long index) {
+            return distance((int) (index / n), (int) (index % n));
+        }
+
+        @Override
+        public void get(long index, float[] dest, int destPos, int length) {
+            int i = (int) (index / n);
+            int j = (int) (index % n);
+            while (length > 0) {
+                int count = Math.min(length, n - j);
+                distances(i, j, j + count, dest, destPos);
+                destPos += count;
+                length -= count;
+                i++;
+                j = 0;
+            }
+        }
+
+        @Override
+        public void set(long index, float value) {
+            throw new UnsupportedOperationException("Distances computed from vectors cannot be changed");
+        }
+    }
+}
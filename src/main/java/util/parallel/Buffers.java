@@ -0,0 +1,32 @@
+package util.parallel;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.function.Supplier;
+
+/**
+ * Work buffers shared by the tasks of parallel loops: a task takes one while it needs it, and gives it back, so that
+ * there are never more of them than tasks running at once. Unlike a ThreadLocal, they belong to this object and not to
+ * the threads of a persistent pool, and are freed with it, once the work which created it is done.
+ */
+public class Buffers<T> {
+
+	private final Supplier<T> factory;
+	/** Buffers given back, the last one first, as the most likely to still be in cache */
+	private final ConcurrentLinkedDeque<T> free = new ConcurrentLinkedDeque<>();
+
+	/** Creates buffers with factory, as they are needed */
+	public Buffers(Supplier<T> factory) {
+		this.factory = factory;
+	}
+
+	/** A buffer given back before, or a new one if none is free. Its content is whatever its last user left */
+	public T take() {
+		T buffer = free.pollFirst();
+		return buffer != null ? buffer : factory.get();
+	}
+
+	/** Gives back a buffer obtained from {@link #take()}, which must not be used afterwards */
+	public void give(T buffer) {
+		free.offerFirst(buffer);
+	}
+}
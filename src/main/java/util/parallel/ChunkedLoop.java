@@ -0,0 +1,98 @@
+package util.parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parallel version of the for loop over a range of indices, split in chunks run by one worker task per thread.
+ * Workers take their chunks according to a {@link Schedule}, so only a few tasks are submitted, whatever the size of
+ * the range, and no object is created per index.
+ */
+class ChunkedLoop {
+
+	/** Number of chunks each thread gets on average, when the chunk size is not given for a dynamic schedule */
+	private static final int CHUNKS_PER_THREAD = 8;
+
+	private ChunkedLoop() {
+	}
+
+	/**
+	 * Runs action over the range from 'from' to 'to', split in chunks of chunkSize indices.
+	 * A chunkSize lower than 1 chooses one: a chunk per thread for a static schedule, and a few chunks per thread for a
+	 * dynamic one.
+	 */
+	static void run(final long from, final long to, ExecutorService executorService, Schedule schedule, long chunkSize,
+			final LongRangeAction action) {
+		if (from >= to) {
+			return;
+		}
+		final long length = to - from;
+		final int threads = parallelism(executorService);
+		if (chunkSize < 1) {
+			long chunks = schedule == Schedule.STATIC ? threads : (long) threads * CHUNKS_PER_THREAD;
+			chunkSize = Math.max(1, (length + chunks - 1) / chunks);
+		}
+		final long chunk = chunkSize;
+		final long numChunks = (length + chunk - 1) / chunk;
+		final int workers = (int) Math.min(threads, numChunks);
+
+		List<Future<?>> futures = new ArrayList<Future<?>>(workers);
+		if (schedule == Schedule.STATIC) {
+			for (int w = 0; w < workers; w++) {
+				final int worker = w;
+				futures.add(executorService.submit(new Runnable() {
+					public void run() {
+						for (long c = worker; c < numChunks; c += workers) {
+							long start = from + c * chunk;
+							action.doAction(start, Math.min(to, start + chunk));
+						}
+					}
+				}));
+			}
+		} else {
+			final AtomicLong next = new AtomicLong(from);
+			for (int w = 0; w < workers; w++) {
+				futures.add(executorService.submit(new Runnable() {
+					public void run() {
+						long start;
+						while ((start = next.getAndAdd(chunk)) < to) {
+							action.doAction(start, Math.min(to, start + chunk));
+						}
+					}
+				}));
+			}
+		}
+
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw new RuntimeException("For method exception. " + cause.getMessage(), cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("For method interrupted", e);
+		}
+	}
+
+	/** Number of threads executorService runs at most, or the number of processors when it is unknown */
+	static int parallelism(ExecutorService executorService) {
+		if (executorService instanceof ForkJoinPool) {
+			return ((ForkJoinPool) executorService).getParallelism();
+		}
+		if (executorService instanceof ThreadPoolExecutor) {
+			int threads = ((ThreadPoolExecutor) executorService).getCorePoolSize();
+			if (threads > 0) {
+				return threads;
+			}
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+}
@@ -0,0 +1,10 @@
+package util.parallel;
+
+/**
+ * Action over an int index, the primitive version of Action&lt;Integer&gt;: indices are neither boxed nor unboxed.
+ */
+public interface IntAction {
+
+	/** Defines the action that will be applied over the index */
+	void doAction(int i);
+}
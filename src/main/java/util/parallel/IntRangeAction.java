@@ -0,0 +1,11 @@
+package util.parallel;
+
+/**
+ * Action over a chunk of consecutive int indices, from 'from' (inclusive) to 'to' (exclusive).
+ * Loops over the chunk themselves, so that the per-index cost is just that of the loop.
+ */
+public interface IntRangeAction {
+
+	/** Defines the action that will be applied over the indices of the chunk */
+	void doAction(int from, int to);
+}
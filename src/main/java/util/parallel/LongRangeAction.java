@@ -0,0 +1,11 @@
+package util.parallel;
+
+/**
+ * Action over a chunk of consecutive long indices, from 'from' (inclusive) to 'to' (exclusive).
+ * @see IntRangeAction
+ */
+public interface LongRangeAction {
+
+	/** Defines the action that will be applied over the indices of the chunk */
+	void doAction(long from, long to);
+}
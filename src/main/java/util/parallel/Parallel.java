@@ -1,8 +1,18 @@
 package util.parallel;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.BiConsumer;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
 import util.MathUtils;
 
 /**
@@ -34,6 +44,10 @@ import util.MathUtils;
  * 	}).values();
  * }
  * </pre>
+ * <p>
+ * The methods which take an ExecutorService submit one task per element. When it is a {@link ForkJoinPool}, the elements
+ * are instead split in ranges, run by work stealing: see {@link RangeTask}.
+ * </p>
  */
 public final class Parallel {
 
@@ -55,7 +69,13 @@ public final class Parallel {
 		return values;
 	}
 
+	/** Runs task over elements with executorService. If it is a {@link ForkJoinPool}, see {@link #ForEach(Iterable, ForkJoinPool, int, Function)} */
 	public static <A, V> Collection<V> ForEach(Iterable<A> elements, ExecutorService executorService, Function<A, V> task) {
+		if (executorService instanceof ForkJoinPool) {
+			List<A> list = asRandomAccessList(elements);
+			ForkJoinPool pool = (ForkJoinPool) executorService;
+			return ForEach(list, pool, (int) RangeTask.defaultGrainSize(0, list.size(), pool), task);
+		}
 		try {
 			TaskHandler<V> loop = new ForEach<A, V>(elements, executorService).apply(task);
 			return loop.values();
@@ -64,6 +84,15 @@ public final class Parallel {
 		}
 	}
 
+	/**
+	 * Runs task over elements with pool, which splits them in ranges of at most grainSize elements and balances the
+	 * ranges among its threads by work stealing. The values are returned in the order of elements.
+	 */
+	public static <A, V> Collection<V> ForEach(Iterable<A> elements, ForkJoinPool pool, int grainSize, final Function<A, V> task) {
+		final List<A> list = asRandomAccessList(elements);
+		return invoke(pool, new RangeTask<V>(0, list.size(), grainSize, i -> task.apply(list.get((int) i))));
+	}
+
 	public static void For(final int from, final int to, final Action<Integer> action) {
 		ExecutorService executorService = Executors.newCachedThreadPool();
 		For(from, to, executorService, action);
@@ -71,9 +100,19 @@ public final class Parallel {
 	}
 
 	public static void For(final int from, final int to, ExecutorService executorService, final Action<Integer> action) {
+		if (executorService instanceof ForkJoinPool) {
+			ForkJoinPool pool = (ForkJoinPool) executorService;
+			For(from, to, pool, (int) RangeTask.defaultGrainSize(from, to, pool), action);
+			return;
+		}
 		ForEach(MathUtils.rangeIterable(from, to), executorService, action);
 	}
 
+	/** Runs action for each index from 'from' to 'to', in ranges of at most grainSize indices balanced by work stealing */
+	public static void For(final int from, final int to, ForkJoinPool pool, int grainSize, final Action<Integer> action) {
+		invoke(pool, new RangeTask<Void>(from, to, grainSize, i -> action.apply((int) i)));
+	}
+
 	public static void For(final long from, final long to, final Action<Long> action) {
 		ExecutorService executorService = Executors.newCachedThreadPool();
 		For(from, to, executorService, action);
@@ -81,6 +120,139 @@ public final class Parallel {
 	}
 
 	public static void For(final long from, final long to, ExecutorService executorService, final Action<Long> action) {
+		if (executorService instanceof ForkJoinPool) {
+			ForkJoinPool pool = (ForkJoinPool) executorService;
+			For(from, to, pool, RangeTask.defaultGrainSize(from, to, pool), action);
+			return;
+		}
 		ForEach(MathUtils.rangeIterable(from, to), executorService, action);
 	}
+
+	/** Runs action for each index from 'from' to 'to', in ranges of at most grainSize indices balanced by work stealing */
+	public static void For(final long from, final long to, ForkJoinPool pool, long grainSize, final Action<Long> action) {
+		invoke(pool, new RangeTask<Void>(from, to, grainSize, i -> action.apply(i)));
+	}
+
+	/** Runs action for each index from 'from' to 'to', in a dynamic schedule of a few chunks per thread of executorService */
+	public static void For(final int from, final int to, ExecutorService executorService, final IntAction action) {
+		For(from, to, executorService, Schedule.DYNAMIC, 0, new IntRangeAction() {
+			public void doAction(int chunkFrom, int chunkTo) {
+				for (int i = chunkFrom; i < chunkTo; i++) {
+					action.doAction(i);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Runs action over chunks of chunkSize indices, covering from 'from' to 'to', with one worker per thread of
+	 * executorService. A chunkSize lower than 1 lets the schedule choose it.
+	 */
+	public static void For(final int from, final int to, ExecutorService executorService, Schedule schedule, int chunkSize, final IntRangeAction action) {
+		ChunkedLoop.run(from, to, executorService, schedule, chunkSize, new LongRangeAction() {
+			public void doAction(long chunkFrom, long chunkTo) {
+				action.doAction((int) chunkFrom, (int) chunkTo);
+			}
+		});
+	}
+
+	/**
+	 * Same as {@link #For(int, int, ExecutorService, Schedule, int, IntRangeAction)}, over long indices. It has its own
+	 * name, so that a lambda for either loop needs no parameter types.
+	 */
+	public static void ForLong(final long from, final long to, ExecutorService executorService, Schedule schedule, long chunkSize, final LongRangeAction action) {
+		ChunkedLoop.run(from, to, executorService, schedule, chunkSize, action);
+	}
+
+	/**
+	 * Sums term(i) for each index from 'from' to 'to', with one worker per thread of executorService, or serially in the
+	 * calling thread if it is null. Each worker accumulates on its own: see {@link Summation} for the modes. With the
+	 * deterministic modes, the result is the same for any executorService, including null.
+	 */
+	public static double sum(final int from, final int to, ExecutorService executorService, final Summation summation, final IntToDoubleFunction term) {
+		if (summation == Summation.LOCAL) {
+			if (executorService == null) {
+				return summation.sumBlock(term, from, to);
+			}
+			final DoubleAdder sum = new DoubleAdder();
+			For(from, to, executorService, Schedule.DYNAMIC, 0, new IntRangeAction() {
+				public void doAction(int chunkFrom, int chunkTo) {
+					sum.add(summation.sumBlock(term, chunkFrom, chunkTo));
+				}
+			});
+			return sum.sum();
+		}
+		final double[] blockSums = new double[blockCount(from, to, Summation.BLOCK_SIZE)];
+		forEachBlock(from, to, executorService, Summation.BLOCK_SIZE, new IntRangeAction() {
+			public void doAction(int blockFrom, int blockTo) {
+				blockSums[(blockFrom - from) / Summation.BLOCK_SIZE] = summation.sumBlock(term, blockFrom, blockTo);
+			}
+		});
+		return summation.combine(blockSums);
+	}
+
+	/**
+	 * Reduces the indices from 'from' to 'to' as {@link java.util.stream.IntStream#collect}: the indices are split in
+	 * blocks of blockSize, each block is accumulated into its own container, with no sharing among threads, and the
+	 * containers are then combined serially in the order of the blocks. Then, for a given blockSize, the result does not
+	 * depend on the threads. A blockSize lower than 1 makes a few blocks per thread. A null executorService runs serially.
+	 */
+	public static <R> R reduce(final int from, final int to, ExecutorService executorService, int blockSize,
+			final Supplier<R> supplier, final ObjIntConsumer<R> accumulator, BiConsumer<R, R> combiner) {
+		if (blockSize < 1) {
+			int threads = executorService == null ? 1 : ChunkedLoop.parallelism(executorService);
+			blockSize = Math.max(1, (int) (((long) to - from + threads - 1) / threads));
+		}
+		final int size = blockSize;
+		final List<R> containers = new ArrayList<R>(Collections.<R>nCopies(blockCount(from, to, size), null));
+		forEachBlock(from, to, executorService, size, new IntRangeAction() {
+			public void doAction(int blockFrom, int blockTo) {
+				R container = supplier.get();
+				for (int i = blockFrom; i < blockTo; i++) {
+					accumulator.accept(container, i);
+				}
+				containers.set((blockFrom - from) / size, container);
+			}
+		});
+		R result = supplier.get();
+		for (R container : containers) {
+			combiner.accept(result, container);
+		}
+		return result;
+	}
+
+	private static int blockCount(int from, int to, int blockSize) {
+		return to <= from ? 0 : (int) (((long) to - from + blockSize - 1) / blockSize);
+	}
+
+	/** Runs action over each block of blockSize indices, in parallel, or serially if executorService is null */
+	private static void forEachBlock(int from, int to, ExecutorService executorService, int blockSize, IntRangeAction action) {
+		if (executorService == null) {
+			for (long blockFrom = from; blockFrom < to; blockFrom += blockSize) {
+				action.doAction((int) blockFrom, (int) Math.min(to, blockFrom + blockSize));
+			}
+		} else {
+			For(from, to, executorService, Schedule.DYNAMIC, blockSize, action);
+		}
+	}
+
+	private static <V> List<V> invoke(ForkJoinPool pool, RangeTask<V> task) {
+		try {
+			return pool.invoke(task);
+		} catch (RuntimeException e) {
+			throw new RuntimeException("ForEach method exception. " + e.getMessage(), e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <A> List<A> asRandomAccessList(Iterable<A> elements) {
+		if (elements instanceof List && elements instanceof RandomAccess) {
+			return (List<A>) elements;
+		}
+		List<A> list = new ArrayList<A>();
+		for (A element : elements) {
+			list.add(element);
+		}
+		return list;
+	}
 }
@@ -0,0 +1,62 @@
+package util.parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.LongFunction;
+
+/**
+ * Parallel version of the for loop over a range of indices, to be run by a {@link ForkJoinPool}.
+ * The range is split in halves until each part has at most grainSize indices. Each thread keeps splitting the parts
+ * it takes, while idle threads steal the halves not started yet, so the work is balanced with one task per part
+ * instead of one task per element.
+ * @param <V> processed element type result. Null results are discarded
+ */
+class RangeTask<V> extends RecursiveTask<List<V>> {
+	private static final long serialVersionUID = 1L;
+
+	/** Number of parts each thread gets on average, when the grain size is not given */
+	private static final int PARTS_PER_THREAD = 8;
+
+	private final long from;
+	private final long to;
+	private final long grainSize;
+	private final LongFunction<V> f;
+
+	public RangeTask(long from, long to, long grainSize, LongFunction<V> f) {
+		if (grainSize < 1) {
+			throw new IllegalArgumentException("Grain size must be positive: " + grainSize);
+		}
+		this.from = from;
+		this.to = to;
+		this.grainSize = grainSize;
+		this.f = f;
+	}
+
+	/** Grain size which splits the range from 'from' to 'to' in a few parts for each thread of pool */
+	static long defaultGrainSize(long from, long to, ForkJoinPool pool) {
+		return Math.max(1, (to - from) / ((long) pool.getParallelism() * PARTS_PER_THREAD));
+	}
+
+	@Override
+	protected List<V> compute() {
+		if (to - from <= grainSize) {
+			List<V> values = new ArrayList<V>();
+			for (long i = from; i < to; i++) {
+				V value = f.apply(i);
+				if (value != null) {
+					values.add(value);
+				}
+			}
+			return values;
+		}
+		long middle = (from + to) >>> 1;
+		RangeTask<V> left = new RangeTask<V>(from, middle, grainSize, f);
+		left.fork();
+		List<V> rightValues = new RangeTask<V>(middle, to, grainSize, f).compute();
+		List<V> values = left.join();
+		values.addAll(rightValues);
+		return values;
+	}
+}
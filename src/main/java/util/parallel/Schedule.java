@@ -0,0 +1,17 @@
+package util.parallel;
+
+/**
+ * How the chunks of a range are distributed among the threads, as in OpenMP.
+ */
+public enum Schedule {
+	/**
+	 * Chunks are dealt to the threads round-robin before the loop starts. Without a chunk size, each thread gets a single
+	 * contiguous chunk. Has no contention at all, and suits iterations of about the same cost.
+	 */
+	STATIC,
+	/**
+	 * Each thread takes the next chunk as soon as it finishes its previous one, through a shared atomic counter.
+	 * Balances iterations of different costs, at the cost of one atomic operation per chunk.
+	 */
+	DYNAMIC
+}
@@ -0,0 +1,65 @@
+package util.parallel;
+
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * How {@link Parallel#sum(int, int, java.util.concurrent.ExecutorService, Summation, IntToDoubleFunction)} adds its terms.
+ * No mode shares a single accumulator among the threads, as an AtomicFloat would.
+ */
+public enum Summation {
+	/**
+	 * Each chunk of the loop is added into a local double, and the sums of the chunks into a striped
+	 * {@link java.util.concurrent.atomic.DoubleAdder}. The cheapest mode, but the order of the additions, and then the
+	 * last bits of the result, depend on the threads.
+	 */
+	LOCAL,
+	/**
+	 * Terms are split in blocks of {@link #BLOCK_SIZE}, whatever the threads, and the block sums are added pairwise, in
+	 * the order of the blocks. The result is the same bit for bit for any number of threads and any schedule.
+	 */
+	PAIRWISE,
+	/**
+	 * As PAIRWISE, but each block and then the block sums are added with Kahan-Babuska compensation, so the rounding error
+	 * does not grow with the number of terms. Also reproducible bit for bit.
+	 */
+	KAHAN;
+
+	/** Number of terms of each block of the deterministic modes. It must not depend on the threads */
+	public static final int BLOCK_SIZE = 256;
+
+	/** Sum of the terms from 'from' to 'to', in this order */
+	double sumBlock(IntToDoubleFunction term, int from, int to) {
+		if (this == KAHAN) {
+			double sum = 0;
+			double compensation = 0;
+			for (int i = from; i < to; i++) {
+				double value = term.applyAsDouble(i);
+				double t = sum + value;
+				compensation += Math.abs(sum) >= Math.abs(value) ? (sum - t) + value : (value - t) + sum;
+				sum = t;
+			}
+			return sum + compensation;
+		}
+		double sum = 0;
+		for (int i = from; i < to; i++) {
+			sum += term.applyAsDouble(i);
+		}
+		return sum;
+	}
+
+	/** Adds the sums of the blocks, in a fixed order */
+	double combine(double[] blockSums) {
+		if (this == KAHAN) {
+			return sumBlock(b -> blockSums[b], 0, blockSums.length);
+		}
+		return pairwise(blockSums, 0, blockSums.length);
+	}
+
+	private static double pairwise(double[] values, int from, int to) {
+		if (to - from <= 2) {
+			return to - from == 2 ? values[from] + values[from + 1] : to > from ? values[from] : 0;
+		}
+		int middle = (from + to) >>> 1;
+		return pairwise(values, from, middle) + pairwise(values, middle, to);
+	}
+}
@@ -0,0 +1,83 @@
+package util.storage;
+
+import util.FloatKernels;
+
+/**
+ * Storage kept in a single contiguous float array on the java heap.
+ * It is limited to the maximum length of a java array, about 2^31 values.
+ * Its sums, argmins and divisions run on {@link FloatKernels#get()}, vectorized when possible.
+ */
+public class ArrayFloatStorage implements FloatStorage {
+
+    private static final FloatKernels KERNELS = FloatKernels.get();
+
+    /** Some JVMs reserve a few header words in arrays, so lengths very close to Integer.MAX_VALUE fail */
+    public static final long MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    private float[] values;
+
+    public ArrayFloatStorage(long size) {
+        if (size > MAX_SIZE) {
+            throw new IllegalArgumentException("Storage of " + size + " values does not fit in a java array, use an off-heap storage");
+        }
+        values = new float[(int) size];
+    }
+
+    public long size() {
+        return values.length;
+    }
+
+    public float get(long index) {
+        return values[(int) index];
+    }
+
+    public void set(long index, float value) {
+        values[(int) index] = value;
+    }
+
+    @Override
+    public void get(long index, float[] dest, int destPos, int length) {
+        System.arraycopy(values, (int) index, dest, destPos, length);
+    }
+
+    @Override
+    public void set(long index, float[] src, int srcPos, int length) {
+        System.arraycopy(src, srcPos, values, (int) index, length);
+    }
+
+    @Override
+    public float sum(long index, int length) {
+        return KERNELS.sum(values, (int) index, (int) index + length);
+    }
+
+    @Override
+    public float sum(long base, int[] offsets, int from, int to) {
+        return KERNELS.sum(values, (int) base, offsets, from, to);
+    }
+
+    @Override
+    public float sum(long base, int[] offsets, int from, int to, float limit) {
+        return KERNELS.sum(values, (int) base, offsets, from, to, limit);
+    }
+
+    @Override
+    public float sumAndAdd(long base, int[] offsets, int from, int to, float[] dest, int destPos) {
+        return KERNELS.sumAndAdd(values, (int) base, offsets, from, to, dest, destPos);
+    }
+
+    @Override
+    public int argmin(long index, int length) {
+        int argmin = KERNELS.argmin(values, (int) index, (int) index + length);
+        return argmin < 0 ? -1 : argmin - (int) index;
+    }
+
+    @Override
+    public void divide(long index, int length, float divisor) {
+        KERNELS.divide(values, (int) index, (int) index + length, divisor);
+    }
+
+    @Override
+    public void release() {
+        values = null;
+    }
+}
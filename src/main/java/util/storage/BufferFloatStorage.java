@@ -0,0 +1,123 @@
+package util.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Storage kept outside the java heap, in direct or memory-mapped byte buffers, so that it does not weigh on the GC.
+ * A single buffer is indexed by int, so values are split in blocks of 2^BLOCK_SHIFT floats each.
+ * Values are little endian, as in {@link util.BinaryMatrixFormat}.
+ */
+public class BufferFloatStorage implements FloatStorage {
+
+    private static final int BLOCK_SHIFT = 28; // 1GB per block
+    private static final int BLOCK_LENGTH = 1 << BLOCK_SHIFT;
+    private static final long BLOCK_MASK = BLOCK_LENGTH - 1;
+
+    private final long size;
+    private FloatBuffer[] blocks;
+
+    private BufferFloatStorage(long size, FloatBuffer[] blocks) {
+        this.size = size;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Allocates a zeroed storage in direct memory.
+     * Notice the JVM limits direct memory by -XX:MaxDirectMemorySize, which by default is the maximum heap size.
+     */
+    public static BufferFloatStorage allocateDirect(long size) {
+        FloatBuffer[] blocks = new FloatBuffer[numBlocks(size)];
+        for (int b = 0; b < blocks.length; b++) {
+            blocks[b] = ByteBuffer.allocateDirect(4 * blockLength(size, b)).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        }
+        return new BufferFloatStorage(size, blocks);
+    }
+
+    /**
+     * Maps 'size' floats of a file, starting at byte 'position'.
+     * The mode must be allowed by how the channel was opened, e.g. {@link MapMode#READ_ONLY} for a channel opened only for reading.
+     */
+    public static BufferFloatStorage map(FileChannel channel, long position, long size, MapMode mode) throws IOException {
+        FloatBuffer[] blocks = new FloatBuffer[numBlocks(size)];
+        for (int b = 0; b < blocks.length; b++) {
+            long blockPosition = position + 4L * b * BLOCK_LENGTH;
+            blocks[b] = channel.map(mode, blockPosition, 4L * blockLength(size, b)).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        }
+        return new BufferFloatStorage(size, blocks);
+    }
+
+    private static int numBlocks(long size) {
+        return (int) ((size + BLOCK_LENGTH - 1) >>> BLOCK_SHIFT);
+    }
+
+    private static int blockLength(long size, int block) {
+        return (int) Math.min(BLOCK_LENGTH, size - ((long) block << BLOCK_SHIFT));
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public float get(long index) {
+        return blocks[(int) (index >>> BLOCK_SHIFT)].get((int) (index & BLOCK_MASK));
+    }
+
+    public void set(long index, float value) {
+        blocks[(int) (index >>> BLOCK_SHIFT)].put((int) (index & BLOCK_MASK), value);
+    }
+
+    @Override
+    public void get(long index, float[] dest, int destPos, int length) {
+        while (length > 0) {
+            FloatBuffer block = blocks[(int) (index >>> BLOCK_SHIFT)];
+            int k = (int) (index & BLOCK_MASK);
+            int n = Math.min(length, BLOCK_LENGTH - k);
+            for (int end = k + n; k < end; k++) {
+                dest[destPos++] = block.get(k);
+            }
+            index += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public void set(long index, float[] src, int srcPos, int length) {
+        while (length > 0) {
+            FloatBuffer block = blocks[(int) (index >>> BLOCK_SHIFT)];
+            int k = (int) (index & BLOCK_MASK);
+            int n = Math.min(length, BLOCK_LENGTH - k);
+            for (int end = k + n; k < end; k++) {
+                block.put(k, src[srcPos++]);
+            }
+            index += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public float sum(long index, int length) {
+        float sum = 0;
+        while (length > 0) {
+            FloatBuffer block = blocks[(int) (index >>> BLOCK_SHIFT)];
+            int k = (int) (index & BLOCK_MASK);
+            int n = Math.min(length, BLOCK_LENGTH - k);
+            for (int end = k + n; k < end; k++) {
+                sum += block.get(k);
+            }
+            index += n;
+            length -= n;
+        }
+        return sum;
+    }
+
+    /** Drops the buffers, so their memory or mappings are freed as soon as they are garbage collected */
+    @Override
+    public void release() {
+        blocks = null;
+    }
+}
@@ -0,0 +1,181 @@
+package util.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-only storage of values kept in a file, for matrices larger than the memory. Values are read in blocks of a fixed
+ * number of floats, kept in a cache of the least recently used blocks, up to a given number of bytes. Values are little
+ * endian, as in {@link util.BinaryMatrixFormat}.
+ * <p>
+ * Blocks are read outside the lock of the cache, so threads wait for the disk in parallel; two threads missing the same
+ * block may both read it, and keep either copy. Reads are fastest in the order of the file, one block after the other,
+ * as {@link #isOutOfCore()} hints to the clusterer.
+ */
+public class CachedFileFloatStorage implements FloatStorage {
+
+    private final FileChannel channel;
+    private final long position;
+    private final long size;
+    private final int blockLength;
+    private final LinkedHashMap<Long, float[]> cache;
+    private final AtomicLong blockReads = new AtomicLong();
+
+    /**
+     * Reads 'size' floats of channel, starting at byte 'position', in blocks of blockLength floats, caching up to
+     * cacheBytes of them, and at least one block. The channel is closed by {@link #release()}.
+     */
+    public CachedFileFloatStorage(FileChannel channel, long position, long size, int blockLength, long cacheBytes) {
+        if (blockLength < 1) {
+            throw new IllegalArgumentException("Block length must be positive, got " + blockLength);
+        }
+        this.channel = channel;
+        this.position = position;
+        this.size = size;
+        this.blockLength = blockLength;
+        final long maxBlocks = Math.max(1, cacheBytes / (4L * blockLength));
+        this.cache = new LinkedHashMap<Long, float[]>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, float[]> eldest) {
+                return size() > maxBlocks;
+            }
+        };
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public float get(long index) {
+        return block(index / blockLength)[(int) (index % blockLength)];
+    }
+
+    @Override
+    public void get(long index, float[] dest, int destPos, int length) {
+        while (length > 0) {
+            int offset = (int) (index % blockLength);
+            int count = Math.min(length, blockLength - offset);
+            System.arraycopy(block(index / blockLength), offset, dest, destPos, count);
+            index += count;
+            destPos += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public float sum(long index, int length) {
+        float sum = 0;
+        while (length > 0) {
+            int offset = (int) (index % blockLength);
+            int count = Math.min(length, blockLength - offset);
+            float[] block = block(index / blockLength);
+            for (int k = offset; k < offset + count; k++) {
+                sum += block[k];
+            }
+            index += count;
+            length -= count;
+        }
+        return sum;
+    }
+
+    /** Looks a block up only when an index falls out of the previous one, which is mostly the same for a line */
+    @Override
+    public float sum(long base, int[] offsets, int from, int to) {
+        return sum(base, offsets, from, to, Float.POSITIVE_INFINITY);
+    }
+
+    @Override
+    public float sum(long base, int[] offsets, int from, int to, float limit) {
+        float sum = 0;
+        long current = -1;
+        float[] block = null;
+        for (int k = from; k < to && sum <= limit; k++) {
+            long index = base + offsets[k];
+            long b = index / blockLength;
+            if (b != current) {
+                block = block(b);
+                current = b;
+            }
+            sum += block[(int) (index - b * blockLength)];
+        }
+        return sum;
+    }
+
+    @Override
+    public void set(long index, float value) {
+        throw new UnsupportedOperationException("Storage cached from a file is read-only");
+    }
+
+    @Override
+    public boolean isOutOfCore() {
+        return true;
+    }
+
+    /** Empties the cache and closes the file */
+    @Override
+    public void release() {
+        synchronized (cache) {
+            cache.clear();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Number of blocks currently cached */
+    public int getCachedBlocks() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /** Number of blocks read from the file so far, including those read again after leaving the cache */
+    public long getBlockReads() {
+        return blockReads.get();
+    }
+
+    private float[] block(long b) {
+        float[] block;
+        synchronized (cache) {
+            block = cache.get(b);
+        }
+        if (block == null) {
+            block = read(b);
+            synchronized (cache) {
+                cache.put(b, block);
+            }
+        }
+        return block;
+    }
+
+    private float[] read(long b) {
+        blockReads.incrementAndGet();
+        int length = (int) Math.min(blockLength, size - b * blockLength);
+        // allocated per read, as the block itself: a buffer kept per thread would outlive the storage in pooled threads
+        ByteBuffer buffer = ByteBuffer.allocate(4 * length).order(ByteOrder.LITTLE_ENDIAN);
+        long filePosition = position + 4L * b * blockLength;
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, filePosition + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of file at block " + b);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+        float[] block = new float[length];
+        buffer.asFloatBuffer().get(block);
+        return block;
+    }
+}
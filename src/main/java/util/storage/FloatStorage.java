@@ -0,0 +1,105 @@
+package util.storage;
+
+/**
+ * Linear storage of float values, addressed by long indices so it can outgrow a single java array.
+ * It is the backend behind {@link util.Matrix}, which maps its cells to indices of a storage.
+ */
+public interface FloatStorage {
+
+    /** Number of values kept by this storage */
+    long size();
+
+    float get(long index);
+
+    void set(long index, float value);
+
+    /** Copies 'length' consecutive values, starting from 'index', into dest from position destPos */
+    default void get(long index, float[] dest, int destPos, int length) {
+        for (int k = 0; k < length; k++) {
+            dest[destPos + k] = get(index + k);
+        }
+    }
+
+    /** Copies 'length' values of src, from position srcPos, into consecutive indices starting from 'index' */
+    default void set(long index, float[] src, int srcPos, int length) {
+        for (int k = 0; k < length; k++) {
+            set(index + k, src[srcPos + k]);
+        }
+    }
+
+    /** Returns the sum of 'length' consecutive values, starting from 'index' */
+    default float sum(long index, int length) {
+        float sum = 0;
+        for (int k = 0; k < length; k++) {
+            sum += get(index + k);
+        }
+        return sum;
+    }
+
+    /** Returns the sum of the values at indices base + offsets[k], for k from 'from' to 'to' - 1 */
+    default float sum(long base, int[] offsets, int from, int to) {
+        float sum = 0;
+        for (int k = from; k < to; k++) {
+            sum += get(base + offsets[k]);
+        }
+        return sum;
+    }
+
+    /**
+     * Same as {@link #sum(long, int[], int, int)}, for non negative values, but it may stop once the sum exceeds limit,
+     * then returning a partial sum above limit. A sum not above limit is exactly that of {@link #sum(long, int[], int, int)}.
+     */
+    default float sum(long base, int[] offsets, int from, int to, float limit) {
+        float sum = 0;
+        for (int k = from; k < to && sum <= limit; k++) {
+            sum += get(base + offsets[k]);
+        }
+        return sum;
+    }
+
+    /**
+     * Same as {@link #sum(long, int[], int, int)}, also adding each value at base + offsets[k] to dest[destPos + k - from].
+     * Values are added in the order of k, to the sum as to dest.
+     */
+    default float sumAndAdd(long base, int[] offsets, int from, int to, float[] dest, int destPos) {
+        float sum = 0;
+        for (int k = from; k < to; k++) {
+            float value = get(base + offsets[k]);
+            sum += value;
+            dest[destPos + k - from] += value;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the offset, from 'index', of the lowest of 'length' consecutive values, the first one in case of ties, or
+     * -1 if none is lower than Float.MAX_VALUE
+     */
+    default int argmin(long index, int length) {
+        int argmin = -1;
+        float min = Float.MAX_VALUE;
+        for (int k = 0; k < length; k++) {
+            float value = get(index + k);
+            if (value < min) {
+                min = value;
+                argmin = k;
+            }
+        }
+        return argmin;
+    }
+
+    /** Divides 'length' consecutive values, starting from 'index', by divisor */
+    default void divide(long index, int length, float divisor) {
+        for (int k = 0; k < length; k++) {
+            set(index + k, get(index + k) / divisor);
+        }
+    }
+
+    /** Whether values are paged in from disk, so that they are best read once each, in index order */
+    default boolean isOutOfCore() {
+        return false;
+    }
+
+    /** Releases the memory or files held by this storage. The storage cannot be used afterwards */
+    default void release() {}
+}
@@ -0,0 +1,104 @@
+package util.storage;
+
+/**
+ * Storage of IEEE 754 half precision floats, 16 bits per value, in a single short array on the java heap.
+ * Values keep 11 significant bits, a relative error below 2^-11, and magnitudes above 65504 become infinite.
+ */
+public class HalfFloatStorage implements FloatStorage {
+
+    private short[] values;
+
+    public HalfFloatStorage(long size) {
+        if (size > ArrayFloatStorage.MAX_SIZE) {
+            throw new IllegalArgumentException("Storage of " + size + " values does not fit in a java array");
+        }
+        values = new short[(int) size];
+    }
+
+    public long size() {
+        return values.length;
+    }
+
+    public float get(long index) {
+        return toFloat(values[(int) index]);
+    }
+
+    public void set(long index, float value) {
+        values[(int) index] = toHalf(value);
+    }
+
+    @Override
+    public float sum(long index, int length) {
+        float sum = 0;
+        for (int k = (int) index, end = k + length; k < end; k++) {
+            sum += toFloat(values[k]);
+        }
+        return sum;
+    }
+
+    @Override
+    public float sum(long base, int[] offsets, int from, int to) {
+        final short[] values = this.values;
+        final int b = (int) base;
+        float sum = 0;
+        for (int k = from; k < to; k++) {
+            sum += toFloat(values[b + offsets[k]]);
+        }
+        return sum;
+    }
+
+    @Override
+    public void release() {
+        values = null;
+    }
+
+    /** Converts a float to half precision, rounding to the nearest value, ties to even */
+    public static short toHalf(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+        int mantissa = bits & 0x7fffff;
+
+        if (exponent == 0xff - 127 + 15) { // infinite or NaN
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        if (exponent >= 0x1f) { // too large
+            return (short) (sign | 0x7c00);
+        }
+        if (exponent <= 0) { // subnormal in half precision
+            if (exponent < -10) {
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            int shift = 14 - exponent;
+            int half = mantissa >>> shift;
+            int remainder = mantissa & ((1 << shift) - 1);
+            int midpoint = 1 << (shift - 1);
+            if (remainder > midpoint || (remainder == midpoint && (half & 1) != 0)) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = (exponent << 10) | (mantissa >>> 13);
+        int remainder = mantissa & 0x1fff;
+        if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0)) {
+            half++; // a carry into the exponent is still the right rounding, up to infinity
+        }
+        return (short) (sign | half);
+    }
+
+    /** Converts a half precision value to float, which is exact */
+    public static float toFloat(short half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        if (exponent == 0) {
+            float subnormal = mantissa * 0x1p-24f;
+            return sign == 0 ? subnormal : -subnormal;
+        }
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 127 - 15) << 23) | (mantissa << 13));
+    }
+}
@@ -0,0 +1,139 @@
+package util.storage;
+
+/**
+ * Storage of values as 8 or 16 bits unsigned fixed point codes, in a single java array on the heap.
+ * A value v in [min, max] is kept as the code round((v - min) / scale), with scale = (max - min) / (2^bits - 1),
+ * so the absolute error is at most scale / 2. Values out of [min, max] are clamped.
+ */
+public abstract class QuantizedFloatStorage implements FloatStorage {
+
+    protected final float min;
+    protected final float scale;
+    private final int maxCode;
+
+    private QuantizedFloatStorage(long size, int bits, float min, float max) {
+        if (size > ArrayFloatStorage.MAX_SIZE) {
+            throw new IllegalArgumentException("Storage of " + size + " values does not fit in a java array");
+        }
+        this.maxCode = (1 << bits) - 1;
+        this.min = min;
+        this.scale = max > min ? (max - min) / maxCode : 1;
+    }
+
+    /** Creates a storage for values in [min, max], coded with 8 or 16 bits */
+    public static QuantizedFloatStorage allocate(long size, int bits, float min, float max) {
+        if (bits == 8) {
+            return new Bytes(size, min, max);
+        }
+        if (bits == 16) {
+            return new Shorts(size, min, max);
+        }
+        throw new IllegalArgumentException("Quantization supports 8 or 16 bits, got " + bits);
+    }
+
+    /** Largest difference between a value in [min, max] and the value returned after storing it */
+    public float getMaxError() {
+        return scale / 2;
+    }
+
+    protected int encode(float value) {
+        int code = Math.round((value - min) / scale);
+        return Math.max(0, Math.min(maxCode, code));
+    }
+
+    protected float decode(int code) {
+        return code * scale + min;
+    }
+
+    private static class Bytes extends QuantizedFloatStorage {
+        private byte[] codes;
+
+        Bytes(long size, float min, float max) {
+            super(size, 8, min, max);
+            codes = new byte[(int) size];
+        }
+
+        public long size() {
+            return codes.length;
+        }
+
+        public float get(long index) {
+            return decode(codes[(int) index] & 0xff);
+        }
+
+        public void set(long index, float value) {
+            codes[(int) index] = (byte) encode(value);
+        }
+
+        @Override
+        public float sum(long index, int length) {
+            float sum = 0;
+            for (int k = (int) index, end = k + length; k < end; k++) {
+                sum += decode(codes[k] & 0xff);
+            }
+            return sum;
+        }
+
+        @Override
+        public float sum(long base, int[] offsets, int from, int to) {
+            final byte[] codes = this.codes;
+            final int b = (int) base;
+            float sum = 0;
+            for (int k = from; k < to; k++) {
+                sum += decode(codes[b + offsets[k]] & 0xff);
+            }
+            return sum;
+        }
+
+        @Override
+        public void release() {
+            codes = null;
+        }
+    }
+
+    private static class Shorts extends QuantizedFloatStorage {
+        private short[] codes;
+
+        Shorts(long size, float min, float max) {
+            super(size, 16, min, max);
+            codes = new short[(int) size];
+        }
+
+        public long size() {
+            return codes.length;
+        }
+
+        public float get(long index) {
+            return decode(codes[(int) index] & 0xffff);
+        }
+
+        public void set(long index, float value) {
+            codes[(int) index] = (short) encode(value);
+        }
+
+        @Override
+        public float sum(long index, int length) {
+            float sum = 0;
+            for (int k = (int) index, end = k + length; k < end; k++) {
+                sum += decode(codes[k] & 0xffff);
+            }
+            return sum;
+        }
+
+        @Override
+        public float sum(long base, int[] offsets, int from, int to) {
+            final short[] codes = this.codes;
+            final int b = (int) base;
+            float sum = 0;
+            for (int k = from; k < to; k++) {
+                sum += decode(codes[b + offsets[k]] & 0xffff);
+            }
+            return sum;
+        }
+
+        @Override
+        public void release() {
+            codes = null;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package util.storage;
+
+/**
+ * Kinds of storage a {@link util.Matrix} can be created with.
+ */
+public enum StorageType {
+    /** A single float array in the java heap */
+    HEAP {
+        public FloatStorage allocate(long size, float minValue, float maxValue) {
+            return new ArrayFloatStorage(size);
+        }
+    },
+    /** Direct buffers, outside the java heap */
+    OFF_HEAP {
+        public FloatStorage allocate(long size, float minValue, float maxValue) {
+            return BufferFloatStorage.allocateDirect(size);
+        }
+    },
+    /** Half precision floats, 2 bytes per value */
+    FLOAT16 {
+        public FloatStorage allocate(long size, float minValue, float maxValue) {
+            return new HalfFloatStorage(size);
+        }
+    },
+    /** 16 bits fixed point, scaled to the range of the values */
+    QUANTIZED_16 {
+        public FloatStorage allocate(long size, float minValue, float maxValue) {
+            return QuantizedFloatStorage.allocate(size, 16, minValue, maxValue);
+        }
+        @Override
+        public boolean needsRange() {
+            return true;
+        }
+    },
+    /** 8 bits fixed point, scaled to the range of the values */
+    QUANTIZED_8 {
+        public FloatStorage allocate(long size, float minValue, float maxValue) {
+            return QuantizedFloatStorage.allocate(size, 8, minValue, maxValue);
+        }
+        @Override
+        public boolean needsRange() {
+            return true;
+        }
+    };
+
+    /** Creates a zeroed storage able to keep 'size' values, which must lie in [minValue, maxValue] */
+    public abstract FloatStorage allocate(long size, float minValue, float maxValue);
+
+    /** Creates a zeroed storage able to keep 'size' values. Only for types which do not need the range of the values */
+    public FloatStorage allocate(long size) {
+        if (needsRange()) {
+            throw new IllegalStateException(this + " storage needs the range of the values to be allocated");
+        }
+        return allocate(size, 0, 0);
+    }
+
+    /** Returns true if the storage is scaled to the range of the values, which must then be known beforehand */
+    public boolean needsRange() {
+        return false;
+    }
+
+    /** Returns true if values may lose precision when kept in this storage */
+    public boolean isLossy() {
+        return this == FLOAT16 || needsRange();
+    }
+}
@@ -0,0 +1,187 @@
+package util;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link FloatKernels} over the preferred vector shape of the CPU, as 8 floats with AVX2 or 16 with AVX-512. Loops
+ * take whole vectors, and leave the remaining values to the scalar code.
+ * <p>
+ * The threshold scans compare a vector at once, and turn the mask into an int of one bit per lane, by or-ing the bits
+ * of its true lanes: its set bits are the positions below the threshold, written out one by one, or or-ed as they are
+ * into a bitset, lanes never crossing a word since their number divides 64. JDK 17 has no compress of the lanes, and
+ * its VectorMask.toLong() is not intrinsic yet, several times slower. Indexed sums gather their values with the
+ * offsets as index map. Sums are only vectorized if asked to, since they round differently from the scalar ones.
+ */
+public class VectorFloatKernels extends FloatKernels {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final int LANES = FLOATS.length();
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, FLOATS.vectorShape());
+    /** Lane k holds bit k */
+    private static final IntVector LANE_BITS = IntVector.broadcast(INTS, 1).lanewise(VectorOperators.LSHL, IntVector.zero(INTS).addIndex(1));
+    /** Gathers take 8 lanes at most: 16 lane gathers were miscompiled on AVX-512 by the C2 of JDK 17, crashing the JVM */
+    private static final VectorSpecies<Float> GATHER = FLOATS.length() > 8 ? FloatVector.SPECIES_256 : FLOATS;
+
+    private final boolean vectorSums;
+
+    public VectorFloatKernels(boolean vectorSums) {
+        this.vectorSums = vectorSums;
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    public float sum(float[] a, int from, int to) {
+        if (!vectorSums) {
+            return super.sum(a, from, to);
+        }
+        FloatVector sums = FloatVector.zero(FLOATS);
+        int k = from;
+        for (int bound = from + FLOATS.loopBound(to - from); k < bound; k += LANES) {
+            sums = sums.add(FloatVector.fromArray(FLOATS, a, k));
+        }
+        return sums.reduceLanes(VectorOperators.ADD) + super.sum(a, k, to);
+    }
+
+    @Override
+    public float sum(float[] a, int base, int[] offsets, int from, int to) {
+        if (!vectorSums) {
+            return super.sum(a, base, offsets, from, to);
+        }
+        FloatVector sums = FloatVector.zero(GATHER);
+        int k = from;
+        for (int bound = from + GATHER.loopBound(to - from); k < bound; k += GATHER.length()) {
+            sums = sums.add(FloatVector.fromArray(GATHER, a, base, offsets, k));
+        }
+        return sums.reduceLanes(VectorOperators.ADD) + super.sum(a, base, offsets, k, to);
+    }
+
+    /** The lanes only grow, and so does their sum, which is checked against limit every LIMIT_STRIDE values */
+    @Override
+    public float sum(float[] a, int base, int[] offsets, int from, int to, float limit) {
+        if (!vectorSums) {
+            return super.sum(a, base, offsets, from, to, limit);
+        }
+        FloatVector sums = FloatVector.zero(GATHER);
+        int k = from;
+        for (int bound = from + GATHER.loopBound(to - from), check = k + LIMIT_STRIDE; k < bound; k += GATHER.length()) {
+            sums = sums.add(FloatVector.fromArray(GATHER, a, base, offsets, k));
+            if (k >= check) {
+                float partial = sums.reduceLanes(VectorOperators.ADD);
+                if (partial > limit) {
+                    return partial;
+                }
+                check = k + LIMIT_STRIDE;
+            }
+        }
+        return sums.reduceLanes(VectorOperators.ADD) + super.sum(a, base, offsets, k, to);
+    }
+
+    @Override
+    public float sumAndAdd(float[] a, int base, int[] offsets, int from, int to, float[] dest, int destPos) {
+        if (!vectorSums) {
+            return super.sumAndAdd(a, base, offsets, from, to, dest, destPos);
+        }
+        FloatVector sums = FloatVector.zero(GATHER);
+        int k = from;
+        for (int bound = from + GATHER.loopBound(to - from); k < bound; k += GATHER.length()) {
+            int position = destPos + k - from;
+            FloatVector values = FloatVector.fromArray(GATHER, a, base, offsets, k);
+            sums = sums.add(values);
+            values.add(FloatVector.fromArray(GATHER, dest, position)).intoArray(dest, position);
+        }
+        return sums.reduceLanes(VectorOperators.ADD) + super.sumAndAdd(a, base, offsets, k, to, dest, destPos + k - from);
+    }
+
+    /** Keeps the lowest value of each lane, ignoring NaN as the scalar loop does, then finds the first position of the lowest of them */
+    @Override
+    public int argmin(float[] a, int from, int to) {
+        FloatVector mins = FloatVector.broadcast(FLOATS, Float.MAX_VALUE);
+        int bound = from + FLOATS.loopBound(to - from);
+        for (int k = from; k < bound; k += LANES) {
+            FloatVector values = FloatVector.fromArray(FLOATS, a, k);
+            mins = mins.blend(values, values.lt(mins));
+        }
+        float min = mins.reduceLanes(VectorOperators.MIN);
+        int tail = super.argmin(a, bound, to);
+        if (tail >= 0 && a[tail] < min) {
+            return tail;
+        }
+        if (min == Float.MAX_VALUE) {
+            return -1;
+        }
+        for (int k = from; ; k += LANES) {
+            VectorMask<Float> equal = FloatVector.fromArray(FLOATS, a, k).eq(min);
+            if (equal.anyTrue()) {
+                return k + equal.firstTrue();
+            }
+        }
+    }
+
+    @Override
+    public void divide(float[] a, int from, int to, float divisor) {
+        int k = from;
+        for (int bound = from + FLOATS.loopBound(to - from); k < bound; k += LANES) {
+            FloatVector.fromArray(FLOATS, a, k).div(divisor).intoArray(a, k);
+        }
+        super.divide(a, k, to, divisor);
+    }
+
+    @Override
+    public int countBelow(float[] a, int length, float threshold) {
+        int count = 0;
+        int k = 0;
+        for (int bound = FLOATS.loopBound(length); k < bound; k += LANES) {
+            count += FloatVector.fromArray(FLOATS, a, k).lt(threshold).trueCount();
+        }
+        for (; k < length; k++) {
+            if (a[k] < threshold) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int indicesBelow(float[] a, int length, float threshold, int[] dest, int destPos) {
+        int position = destPos;
+        int k = 0;
+        for (int bound = FLOATS.loopBound(length); k < bound; k += LANES) {
+            for (int bits = lanesBelow(a, k, threshold); bits != 0; bits &= bits - 1) {
+                dest[position++] = k + Integer.numberOfTrailingZeros(bits);
+            }
+        }
+        for (; k < length; k++) {
+            if (a[k] < threshold) {
+                dest[position++] = k;
+            }
+        }
+        return position - destPos;
+    }
+
+    @Override
+    public void setBitsBelow(float[] a, int length, float threshold, long[] bits) {
+        int k = 0;
+        for (int bound = FLOATS.loopBound(length); k < bound; k += LANES) {
+            bits[k >>> 6] |= (lanesBelow(a, k, threshold) & 0xFFFFFFFFL) << k;
+        }
+        for (; k < length; k++) {
+            if (a[k] < threshold) {
+                bits[k >>> 6] |= 1L << k;
+            }
+        }
+    }
+
+    /** Bit k of the result tells whether a[from + k] is lower than threshold */
+    private static int lanesBelow(float[] a, int from, float threshold) {
+        VectorMask<Float> below = FloatVector.fromArray(FLOATS, a, from).lt(threshold);
+        return IntVector.zero(INTS).blend(LANE_BITS, below.cast(INTS)).reduceLanes(VectorOperators.OR);
+    }
+}
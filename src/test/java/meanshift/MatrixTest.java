@@ -0,0 +1,398 @@
+package meanshift;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormat;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import util.BinaryMatrixFormat;
+import util.FileUtils;
+import util.FloatKernels;
+import util.MathUtils;
+import util.Matrix;
+import util.SymmetricMatrix;
+import util.TextMatrixFormat;
+import util.storage.CachedFileFloatStorage;
+import util.storage.HalfFloatStorage;
+import util.storage.StorageType;
+
+
+public class MatrixTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Matrix randomSymmetricMatrix(int n) {
+        Random random = new Random(n);
+        Matrix m = new Matrix(n, n);
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                float v = random.nextFloat();
+                m.setValue(i, j, v);
+                m.setValue(j, i, v);
+            }
+        }
+        return m;
+    }
+
+    private static void assertSameValues(Matrix expected, Matrix actual, float delta) {
+        assertEquals(expected.getLineNumber(), actual.getLineNumber());
+        assertEquals(expected.getColumnNumber(), actual.getColumnNumber());
+        for (int i = 0; i < expected.getLineNumber(); i++) {
+            for (int j = 0; j < expected.getColumnNumber(); j++) {
+                assertEquals(expected.getValue(i, j), actual.getValue(i, j), delta);
+            }
+        }
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        Matrix m = randomSymmetricMatrix(50);
+        File file = folder.newFile("m.bin");
+        m.saveBinary(file);
+        assertTrue(BinaryMatrixFormat.isBinary(file));
+        assertSameValues(m, Matrix.loadBinary(file), 0);
+        assertSameValues(m, Matrix.load(file), 0);
+    }
+
+    @Test
+    public void testTextToBinaryConversion() throws Exception {
+        Matrix m = randomSymmetricMatrix(30);
+        File text = folder.newFile("m.in");
+        File binary = folder.newFile("m.bin");
+        m.save(text);
+        assertFalse(BinaryMatrixFormat.isBinary(text));
+        BinaryMatrixFormat.convert(text, binary);
+        assertSameValues(Matrix.load(text), Matrix.load(binary), 0);
+        assertSameValues(m, Matrix.load(binary), 1e-6F);
+    }
+
+    @Test
+    public void testStorageTypesBehaveTheSame() throws Exception {
+        Matrix heap = randomSymmetricMatrix(40);
+        File file = folder.newFile("m.bin");
+        heap.saveBinary(file);
+        Matrix[] others = { Matrix.loadBinary(file), Matrix.loadBinary(file, StorageType.OFF_HEAP), Matrix.loadBinary(file, StorageType.HEAP) };
+        List<Integer> js = Arrays.asList(0, 3, 7, 39);
+        for (Matrix m : others) {
+            assertSameValues(heap, m, 0);
+            for (int i = 0; i < heap.getLineNumber(); i++) {
+                assertArrayEquals(heap.getValues(i), m.getValues(i), 0);
+                assertEquals(heap.getLineSum(i), m.getLineSum(i), 0);
+                assertEquals(heap.getLineSum(i, js), m.getLineSum(i, js), 0);
+                assertEquals(heap.getKthLowestValueInLine(i, 10), m.getKthLowestValueInLine(i, 10), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testSymmetricMatrix() throws Exception {
+        Matrix dense = randomSymmetricMatrix(25);
+        SymmetricMatrix symmetric = SymmetricMatrix.of(dense, StorageType.HEAP);
+        assertSameValues(dense, symmetric, 0);
+        List<Integer> js = Arrays.asList(0, 5, 12, 24);
+        for (int i = 0; i < dense.getLineNumber(); i++) {
+            assertArrayEquals(dense.getValues(i), symmetric.getValues(i), 0);
+            assertEquals(dense.getLineSum(i), symmetric.getLineSum(i), 0);
+            assertEquals(dense.getLineSum(i, js), symmetric.getLineSum(i, js), 0);
+            assertEquals(dense.getKthLowestValueInLine(i, 7), symmetric.getKthLowestValueInLine(i, 7), 0);
+        }
+
+        SymmetricMatrix divided = symmetric.copy(StorageType.HEAP);
+        divided.divideLineValues(7, 4);
+        for (int j = 0; j < dense.getLineNumber(); j++) {
+            assertEquals(dense.getValue(7, j) / 4, divided.getValue(7, j), 0);
+            assertEquals(dense.getValue(j, 7) / 4, divided.getValue(j, 7), 0);
+            if (j != 7) {
+                assertEquals(dense.getValue(3, j), divided.getValue(3, j), 0); // other cells are kept
+            }
+        }
+
+        File triangle = folder.newFile("m.in");
+        symmetric.saveTriangular(triangle);
+        assertSameValues(symmetric, SymmetricMatrix.load(triangle, StorageType.HEAP), 1e-6F);
+        File square = folder.newFile("square.in");
+        dense.save(square);
+        assertSameValues(symmetric, SymmetricMatrix.load(square, StorageType.HEAP), 1e-6F);
+        File single = folder.newFile("single.in");
+        Files.write(single.toPath(), "0\n".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(1, SymmetricMatrix.load(single, StorageType.HEAP).getLineNumber());
+        Files.write(single.toPath(), "1.5\n".getBytes(StandardCharsets.US_ASCII));
+        assertSameValues(new Matrix(new float[][] { { 0, 1.5F }, { 1.5F, 0 } }), SymmetricMatrix.load(single, StorageType.HEAP), 0);
+        Files.write(single.toPath(), "1,2,3\n4,5\n7,8\n".getBytes(StandardCharsets.US_ASCII));
+        try {
+            SymmetricMatrix.load(single, StorageType.HEAP);
+            fail("ragged triangle not detected");
+        } catch (ParseException e) {
+            assertEquals(2, e.getErrorOffset());
+        }
+
+        File binary = folder.newFile("m.bin");
+        symmetric.saveBinary(binary);
+        assertEquals(BinaryMatrixFormat.HEADER_SIZE + 4 * SymmetricMatrix.packedSize(25), binary.length());
+        Matrix loaded = Matrix.load(binary);
+        assertTrue(loaded instanceof SymmetricMatrix);
+        assertSameValues(dense, loaded, 0);
+        assertSameValues(dense, Matrix.load(binary, StorageType.OFF_HEAP), 0);
+    }
+
+    @Test
+    public void testReducedPrecisionStorages() throws Exception {
+        Matrix m = randomSymmetricMatrix(30);
+        assertSameValues(m, m.copy(StorageType.FLOAT16), 1F / 2048);
+        assertSameValues(m, m.copy(StorageType.QUANTIZED_16), 1F / 65535);
+        assertSameValues(m, m.copy(StorageType.QUANTIZED_8), 1F / 255);
+        assertSameValues(m, SymmetricMatrix.of(m, StorageType.QUANTIZED_8), 1F / 255);
+
+        for (float value : new float[] { 0, 1, -2.5F, 0.1F, 65504, 1e-5F, 6e-8F }) {
+            assertEquals(value, HalfFloatStorage.toFloat(HalfFloatStorage.toHalf(value)), Math.max(Math.abs(value) / 2048, 0x1p-25F));
+        }
+        assertEquals(Float.POSITIVE_INFINITY, HalfFloatStorage.toFloat(HalfFloatStorage.toHalf(1e6F)), 0);
+    }
+
+    @Test
+    public void testKthLowest() {
+        Random random = new Random(7);
+        for (int length : new int[] { 1, 2, 3, 10, 1000 }) {
+            float[] values = new float[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = random.nextInt(Math.max(2, length / 4)); // with many repeated values
+            }
+            float[] sorted = values.clone();
+            Arrays.sort(sorted);
+            for (int k = 1; k <= length; k += Math.max(1, length / 37)) {
+                assertEquals(sorted[k - 1], MathUtils.kthLowest(values.clone(), length, k), 0);
+            }
+        }
+        float[] ascending = new float[5000];
+        for (int i = 0; i < ascending.length; i++) {
+            ascending[i] = i;
+        }
+        assertEquals(4321, MathUtils.kthLowest(ascending, ascending.length, 4322), 0);
+    }
+
+    @Test
+    public void testBlockedLineSums() {
+        Matrix dense = randomSymmetricMatrix(300);
+        Matrix symmetric = SymmetricMatrix.of(dense, StorageType.HEAP);
+        int[] js = new int[200];
+        for (int k = 0; k < js.length; k++) {
+            js[k] = k + k / 2;
+        }
+        float[] sums = new float[js.length];
+        for (Matrix m : new Matrix[] { dense, symmetric }) {
+            m.getLineSums(js, 0, js.length, sums);
+            for (int k = 0; k < js.length; k++) {
+                assertEquals(dense.getLineSum(js[k], js, 0, js.length), sums[k], 1e-3F);
+            }
+            assertEquals(dense.getMedoid(js, 10, 150), m.getMedoid(js, 10, 150, sums));
+        }
+    }
+
+    @Test
+    public void testPrunedMedoids() throws Exception {
+        Random random = new Random(13);
+        int n = 200;
+        Matrix dense = new Matrix(n, n);
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                float v = random.nextInt(8) / 8F; // many ties between the sums
+                dense.setValue(i, j, v);
+                dense.setValue(j, i, v);
+            }
+        }
+        int[] js = new int[120];
+        for (int k = 0; k < js.length; k++) {
+            js[k] = (k * 7) % n;
+        }
+        for (Matrix m : new Matrix[] { dense, dense.copy(StorageType.OFF_HEAP), SymmetricMatrix.of(dense, StorageType.HEAP) }) {
+            for (int from = 0; from < js.length; from += 17) {
+                for (int to = from; to <= js.length; to += 13) {
+                    int expected = m.getMedoid(js, from, to);
+                    assertEquals(expected, m.getMedoid(js, from, to, -1));
+                    for (int k = from; k < to; k += 5) {
+                        assertEquals(expected, m.getMedoid(js, from, to, js[k]));
+                    }
+                }
+            }
+            float sum = m.getLineSum(js[3], js, 0, js.length);
+            assertEquals(sum, m.getLineSum(js[3], js, 0, js.length, sum), 0);
+            assertTrue(m.getLineSum(js[3], js, 0, js.length, sum / 2) > sum / 2);
+        }
+    }
+
+    @Test
+    public void testKernelsAgreeWithTheScalarLoops() {
+        FloatKernels scalar = FloatKernels.scalar();
+        FloatKernels kernels = FloatKernels.get(); // vectorized when run with --add-modules jdk.incubator.vector
+        // set by the vector-kernels run of the build, so that it fails if the vectorized kernels silently fall back
+        assertEquals(Boolean.getBoolean("meanshift.expectVectorKernels"), kernels.isVectorized());
+        Random random = new Random(11);
+        for (int length = 0; length < 150; length += 1 + length / 10) {
+            float[] a = new float[length];
+            for (int k = 0; k < length; k++) {
+                a[k] = random.nextInt(20) / 4F; // ties for the argmin
+            }
+            if (length > 40) {
+                a[length / 3] = Float.NaN;
+                a[length - 1] = -1;
+            }
+            int[] offsets = new int[length];
+            for (int k = 0; k < length; k++) {
+                offsets[k] = random.nextInt(length);
+            }
+            int from = Math.min(length, 3);
+            assertEquals(scalar.sum(a, from, length), kernels.sum(a, from, length), 1e-3F);
+            assertEquals(scalar.sum(a, 0, offsets, from, length), kernels.sum(a, 0, offsets, from, length), 1e-3F);
+            float[] expectedSums = new float[length];
+            float[] sums = new float[length];
+            assertEquals(scalar.sumAndAdd(a, 0, offsets, from, length, expectedSums, 1), kernels.sumAndAdd(a, 0, offsets, from, length, sums, 1), 1e-3F);
+            assertArrayEquals(expectedSums, sums, 0);
+            assertEquals(scalar.argmin(a, from, length), kernels.argmin(a, from, length));
+
+            float threshold = 2.1F;
+            assertEquals(scalar.countBelow(a, length, threshold), kernels.countBelow(a, length, threshold));
+            int[] expectedIndices = new int[length + 2];
+            int[] indices = new int[length + 2];
+            assertEquals(scalar.indicesBelow(a, length, threshold, expectedIndices, 2), kernels.indicesBelow(a, length, threshold, indices, 2));
+            assertArrayEquals(expectedIndices, indices);
+            long[] expectedBits = new long[(length + 63) / 64];
+            long[] bits = new long[expectedBits.length];
+            scalar.setBitsBelow(a, length, threshold, expectedBits);
+            kernels.setBitsBelow(a, length, threshold, bits);
+            assertArrayEquals(expectedBits, bits);
+
+            float[] expectedQuotients = a.clone();
+            scalar.divide(expectedQuotients, from, length, 3);
+            kernels.divide(a, from, length, 3);
+            assertArrayEquals(expectedQuotients, a, 0);
+        }
+        float[] large = { Float.MAX_VALUE, Float.MAX_VALUE, Float.NaN, Float.POSITIVE_INFINITY, Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+        assertEquals(-1, kernels.argmin(large, 0, large.length));
+
+        Matrix m = randomSymmetricMatrix(70);
+        Matrix symmetric = SymmetricMatrix.of(m, StorageType.HEAP);
+        for (int i = 0; i < m.getLineNumber(); i++) {
+            int argmin = -1;
+            for (int j = 0; j < m.getColumnNumber(); j++) {
+                if (argmin < 0 || m.getValue(i, j) < m.getValue(i, argmin)) {
+                    argmin = j;
+                }
+            }
+            assertEquals(argmin, m.getArgminInLine(i));
+            assertEquals(argmin, symmetric.getArgminInLine(i));
+        }
+    }
+
+    @Test
+    public void testParallelTextLoading() throws Exception {
+        // more than one chunk of TextMatrixFormat, with values parsed as DecimalFormat did
+        Matrix m = randomSymmetricMatrix(800);
+        File text = folder.newFile("m.in");
+        m.save(text);
+        assertTrue(text.length() > 1 << 22);
+        DecimalFormat format = FileUtils.getDecimalFormatter();
+        List<String> lines = Files.readAllLines(text.toPath(), StandardCharsets.US_ASCII);
+        Matrix expected = new Matrix(lines.size(), m.getColumnNumber());
+        for (int i = 0; i < lines.size(); i++) {
+            String[] pieces = lines.get(i).split(",");
+            for (int j = 0; j < pieces.length; j++) {
+                expected.setValue(i, j, format.parse(pieces[j]).floatValue());
+            }
+        }
+        assertSameValues(expected, Matrix.load(text), 0);
+        assertSameValues(expected, TextMatrixFormat.load(text, StorageType.OFF_HEAP, null), 0);
+
+        File triangle = folder.newFile("triangle.in");
+        SymmetricMatrix.of(randomSymmetricMatrix(1200), StorageType.HEAP).saveTriangular(triangle);
+        assertTrue(triangle.length() > 1 << 22);
+        SymmetricMatrix symmetric = TextMatrixFormat.loadSymmetric(triangle, StorageType.HEAP, new ForkJoinPool(3));
+        assertSameValues(symmetric, TextMatrixFormat.loadSymmetric(triangle, StorageType.HEAP, null), 0);
+        assertSameValues(randomSymmetricMatrix(1200), symmetric, 1e-6F);
+
+        // lines longer than a chunk and the first mapping past it
+        Random random = new Random(5);
+        Matrix wide = new Matrix(3, 700000);
+        for (int i = 0; i < wide.getLineNumber(); i++) {
+            for (int j = 0; j < wide.getColumnNumber(); j++) {
+                wide.setValue(i, j, random.nextFloat());
+            }
+        }
+        File wideText = folder.newFile("wide.in");
+        wide.save(wideText);
+        assertTrue(wideText.length() / 3 > (1 << 22) + (1 << 20));
+        Matrix wideLoaded = TextMatrixFormat.load(wideText, StorageType.HEAP, new ForkJoinPool(3));
+        assertSameValues(wideLoaded, TextMatrixFormat.load(wideText, StorageType.HEAP, null), 0);
+        assertSameValues(wide, wideLoaded, 1e-6F);
+
+        File windows = folder.newFile("windows.in");
+        Files.write(windows.toPath(), "1,-2.5,3e2\r\n0.125 , 1E-3,7\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        assertSameValues(new Matrix(new float[][] { { 1, -2.5F, 300 }, { 0.125F, 0.001F, 7 } }), Matrix.load(windows), 0);
+
+        File ragged = folder.newFile("ragged.in");
+        Files.write(ragged.toPath(), "1,2,3\n4,5,6\n7,8\n1,2,3\n".getBytes(StandardCharsets.US_ASCII));
+        try {
+            Matrix.load(ragged);
+            fail("ragged line not detected");
+        } catch (ParseException e) {
+            assertEquals(2, e.getErrorOffset());
+        }
+    }
+
+    @Test
+    public void testCachedFileStorage() throws Exception {
+        Matrix m = randomSymmetricMatrix(300);
+        File file = folder.newFile("m.bin");
+        m.saveBinary(file);
+
+        Matrix cached = Matrix.loadCached(file, 1 << 20);
+        assertTrue(cached.isOutOfCore());
+        assertSameValues(m, cached, 0);
+        cached.destroyResources();
+
+        // blocks which split lines, and a cache of only three of them
+        CachedFileFloatStorage storage = new CachedFileFloatStorage(FileChannel.open(file.toPath(), StandardOpenOption.READ),
+            BinaryMatrixFormat.HEADER_SIZE, 300L * 300, 1000, 3 * 4000);
+        cached = new Matrix(300, 300, storage);
+        assertSameValues(m, cached, 0);
+        assertEquals(3, storage.getCachedBlocks());
+        int[] js = { 0, 5, 299, 150, 151 };
+        assertEquals(m.getLineSum(77, js, 0, js.length), cached.getLineSum(77, js, 0, js.length), 0);
+        assertEquals(m.getLineSum(200), cached.getLineSum(200), 0);
+
+        // the lines are read in order, a few times, instead of once per medoid search and convergence step
+        try (MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setOption(2).setThreads(3).setVerbose(false))) {
+            long reads = storage.getBlockReads();
+            assertEquals(clusterer.mean_shift(m, -1, 0.2F, 100), clusterer.mean_shift(cached, -1, 0.2F, 100));
+            assertTrue(storage.getBlockReads() - reads < 15 * 90);
+        }
+        int[] seeds = new int[300];
+        for (int k = 0; k < seeds.length; k++) {
+            seeds[k] = k;
+        }
+        for (boolean bitsets : new boolean[] { true, false }) {
+            try (MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setOption(2).setThreads(3).setBitsetNeighbors(bitsets).setVerbose(false))) {
+                float bandwidth = clusterer.estimateBandwidth(m, 0.2);
+                MeanShiftClusterer.Clustering inMemory = clusterer.new Clustering(m);
+                inMemory.computeIndicesOfAllNeighborsWithinRadius(seeds, bandwidth);
+                inMemory.computeMedoidsOfAllSeeds(seeds);
+                MeanShiftClusterer.Clustering streamed = clusterer.new Clustering(cached);
+                streamed.computeIndicesOfAllNeighborsWithinRadius(seeds, bandwidth);
+                streamed.computeMedoidsOfAllSeeds(seeds);
+                for (int seed : seeds) {
+                    assertEquals(inMemory.getMeanPoint(seed), streamed.getMeanPoint(seed));
+                }
+            }
+        }
+        cached.destroyResources();
+    }
+}
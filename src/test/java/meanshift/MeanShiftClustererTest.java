@@ -0,0 +1,599 @@
+package meanshift;
+
+import static org.junit.Assert.*;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import util.DistanceMetric;
+import util.KdTree;
+import util.Matrix;
+import util.NeighborIndex;
+import util.SymmetricMatrix;
+import util.VectorDistances;
+import util.storage.StorageType;
+
+
+public class MeanShiftClustererTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Points drawn around a few centers in the plane */
+    static float[][] clusteredPoints(int n, int clusters, long seed) {
+        Random random = new Random(seed);
+        float[][] points = new float[n][2];
+        for (int i = 0; i < n; i++) {
+            int cluster = i % clusters;
+            points[i][0] = cluster * 10 + (float) random.nextGaussian();
+            points[i][1] = (cluster % 2) * 10 + (float) random.nextGaussian();
+        }
+        return points;
+    }
+
+    /** Euclidean distances among the points of clusteredPoints */
+    static Matrix clusteredDistanceMatrix(int n, int clusters, long seed) {
+        float[][] points = clusteredPoints(n, clusters, seed);
+        Matrix m = new SymmetricMatrix(n);
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                m.setValue(i, j, (float) Math.hypot(points[i][0] - points[j][0], points[i][1] - points[j][1]));
+            }
+        }
+        return m;
+    }
+
+    private static List<Integer> sorted(List<Integer> centers) {
+        List<Integer> copy = new ArrayList<>(centers);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    @Test
+    public void testOptionsFindTheSameCenters() {
+        Matrix m = clusteredDistanceMatrix(300, 4, 1);
+        List<Integer> expected;
+        try (MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setOption(0).setVerbose(false))) {
+            expected = sorted(clusterer.mean_shift(m, -1, 0.1F, 100));
+        }
+        assertFalse(expected.isEmpty());
+        for (int option : new int[] { 1, 2 }) {
+            try (MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setOption(option).setThreads(3).setVerbose(false))) {
+                assertEquals(expected, sorted(clusterer.mean_shift(m, -1, 0.1F, 100)));
+            }
+        }
+    }
+
+    /** Same as clusteredDistanceMatrix, with distances rounded to eighths: their sums are exact in any order */
+    static Matrix roundedDistanceMatrix(int n, int clusters, long seed) {
+        Matrix m = clusteredDistanceMatrix(n, clusters, seed);
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                m.setValue(i, j, Math.round(m.getValue(i, j) * 8) / 8F);
+            }
+        }
+        return m;
+    }
+
+    @Test
+    public void testBlockedMedoidsFindTheSameCenters() {
+        for (long seed = 1; seed <= 3; seed++) {
+            Matrix m = roundedDistanceMatrix(300, 2 + (int) seed, seed);
+            List<Integer> expected;
+            try (MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setBlockedMedoids(false).setVerbose(false))) {
+                expected = sorted(clusterer.mean_shift(m, -1, 0.1F, 100));
+            }
+            assertFalse(expected.isEmpty());
+            try (MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setBlockedMedoids(true).setVerbose(false))) {
+                assertEquals(expected, sorted(clusterer.mean_shift(m, -1, 0.1F, 100)));
+            }
+        }
+    }
+
+    @Test
+    public void testPrunedMedoidsOfTheClustering() {
+        Matrix m = clusteredDistanceMatrix(400, 4, 3);
+        int[] seeds = new int[m.getLineNumber()];
+        for (int k = 0; k < seeds.length; k++) {
+            seeds[k] = k;
+        }
+        try (MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setVerbose(false))) {
+            MeanShiftClusterer.Clustering clustering = clusterer.new Clustering(m);
+            clustering.computeIndicesOfAllNeighborsWithinRadius(seeds, clusterer.estimateBandwidth(m, 0.2));
+            clustering.computeMedoidsOfAllSeeds(seeds);
+            NeighborIndex neighbors = clustering.getNeighborIndex();
+            int[] js = new int[m.getLineNumber()];
+            for (int seed : seeds) {
+                int size = neighbors.copyNeighbors(seed, js);
+                assertEquals(m.getMedoid(js, 0, size), clustering.getMeanPoint(seed));
+            }
+        }
+    }
+
+    /**
+     * The clustering as first written, serial and without any of its optimizations: neighbor lists, medoids searched
+     * at each step, intensities in a map, and centers suppressed by decreasing intensity, then increasing index. Fills
+     * intensityByCenter, and returns the centers in that order.
+     */
+    private static List<Integer> referenceMeanShift(Matrix m, List<Integer> seeds, float bandwidth, int maxIterations,
+            Map<Integer, Integer> intensityByCenter) {
+        Map<Integer, List<Integer>> neighborsByElement = new HashMap<>();
+        for (int seed : seeds) {
+            List<Integer> neighbors = new ArrayList<>();
+            for (int j = 0; j < m.getColumnNumber(); j++) {
+                if (m.getValue(seed, j) < bandwidth) {
+                    neighbors.add(j);
+                }
+            }
+            neighborsByElement.put(seed, neighbors);
+        }
+        for (int seed : seeds) {
+            for (int iterations = 0; ; iterations++) {
+                List<Integer> neighbors = neighborsByElement.getOrDefault(seed, Collections.<Integer>emptyList());
+                if (neighbors.isEmpty()) {
+                    break;
+                }
+                int oldMean = seed;
+                float minSum = Float.MAX_VALUE;
+                for (int point : neighbors) {
+                    float sum = m.getLineSum(point, neighbors);
+                    if (sum < minSum) {
+                        minSum = sum;
+                        seed = point;
+                    }
+                }
+                if (m.getValue(seed, oldMean) < MeanShiftClusterer.stopThreshold(bandwidth) || iterations == maxIterations) {
+                    intensityByCenter.merge(seed, neighbors.size(), Math::max);
+                    break;
+                }
+            }
+        }
+        List<Integer> sorted = new ArrayList<>(intensityByCenter.keySet());
+        sorted.sort((a, b) -> intensityByCenter.get(a).equals(intensityByCenter.get(b))
+            ? Integer.compare(a, b) : Integer.compare(intensityByCenter.get(b), intensityByCenter.get(a)));
+        boolean[] unique = new boolean[sorted.size()];
+        Arrays.fill(unique, true);
+        for (int i = 0; i < sorted.size(); i++) {
+            if (unique[i]) {
+                for (int k = 0; k < sorted.size(); k++) {
+                    if (m.getValue(sorted.get(i), sorted.get(k)) < bandwidth) {
+                        unique[k] = false;
+                    }
+                }
+                unique[i] = true;
+            }
+        }
+        List<Integer> centers = new ArrayList<>();
+        for (int i = 0; i < sorted.size(); i++) {
+            if (unique[i]) {
+                centers.add(sorted.get(i));
+            }
+        }
+        return centers;
+    }
+
+    @Test
+    public void testSameCentersAndIntensitiesAsTheReference() {
+        for (long seed = 1; seed <= 4; seed++) {
+            Matrix symmetric = seed % 2 == 0 ? roundedDistanceMatrix(250, 2 + (int) seed, seed) : clusteredDistanceMatrix(250, 2 + (int) seed, seed);
+            for (Matrix m : new Matrix[] { symmetric, symmetric.copy(StorageType.HEAP) }) {
+                for (int maxSeeds : new int[] { -1, 60 }) {
+                    List<Integer> seeds = new ArrayList<>();
+                    for (int point = 0; point < m.getLineNumber(); point++) {
+                        seeds.add(point);
+                    }
+                    if (maxSeeds > 0) {
+                        Collections.shuffle(seeds, new Random(seed));
+                        seeds = seeds.subList(0, maxSeeds);
+                    }
+                    for (int option : new int[] { 0, 1, 2 }) {
+                        try (MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setOption(option).setThreads(3).setVerbose(false))) {
+                            float bandwidth = clusterer.estimateBandwidth(m, 0.1);
+                            Map<Integer, Integer> expectedIntensities = new HashMap<>();
+                            List<Integer> expected = referenceMeanShift(m, seeds, bandwidth, 100, expectedIntensities);
+                            assertFalse(expected.isEmpty());
+                            assertEquals(expected, clusterer.mean_shift(m, seeds, 0.1F, 100));
+
+                            // the climbs themselves, whose medoids are memoized and shared by the seeds
+                            int[] seedArray = seeds.stream().mapToInt(Integer::intValue).toArray();
+                            MeanShiftClusterer.Clustering clustering = clusterer.new Clustering(m);
+                            clustering.computeIndicesOfAllNeighborsWithinRadius(seedArray, bandwidth);
+                            clustering.computeMedoidsOfAllSeeds(seedArray);
+                            AtomicIntegerArray intensities = clustering.convergeAllSeeds(seedArray, 100, MeanShiftClusterer.stopThreshold(bandwidth));
+                            for (int point = 0; point < m.getLineNumber(); point++) {
+                                assertEquals((int) expectedIntensities.getOrDefault(point, 0), intensities.get(point));
+                            }
+                            // a memoized medoid is that of the whole neighborhood, as the reference finds it at each step
+                            for (int point : seeds) {
+                                int[] neighbors = new int[m.getLineNumber()];
+                                int size = clustering.getNeighborIndex().copyNeighbors(point, neighbors);
+                                assertEquals(m.getMedoid(neighbors, 0, size), clustering.getMeanPoint(point));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentCallsOnOneClusterer() throws Exception {
+        final Matrix[] matrices = new Matrix[6];
+        List<List<Integer>> expected = new ArrayList<>();
+        try (MeanShiftClusterer serial = new MeanShiftClusterer(new MeanShiftConfig().setOption(0).setVerbose(false))) {
+            for (int k = 0; k < matrices.length; k++) {
+                matrices[k] = clusteredDistanceMatrix(150 + 10 * k, 2 + k % 3, k);
+                expected.add(sorted(serial.mean_shift(matrices[k], -1, 0.1F, 100)));
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        ExecutorService callers = Executors.newFixedThreadPool(matrices.length);
+        for (int option : new int[] { 1, 2 }) {
+            final MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setOption(option).setVerbose(false), pool);
+            List<Future<List<Integer>>> results = new ArrayList<>();
+            for (int round = 0; round < 3; round++) {
+                for (final Matrix m : matrices) {
+                    results.add(callers.submit(new Callable<List<Integer>>() {
+                        public List<Integer> call() {
+                            return sorted(clusterer.mean_shift(m, -1, 0.1F, 100));
+                        }
+                    }));
+                }
+            }
+            for (int r = 0; r < results.size(); r++) {
+                assertEquals(expected.get(r % matrices.length), results.get(r).get());
+            }
+            clusterer.close();
+            assertFalse(pool.isShutdown());
+        }
+        callers.shutdown();
+        pool.shutdown();
+    }
+
+    @Test
+    public void testMetricsListenerAndMBean() throws Exception {
+        Matrix m = clusteredDistanceMatrix(200, 3, 7);
+        String name = "meanshift:type=MeanShiftClusterer,name=test";
+        final List<MeanShiftMetrics> received = new ArrayList<>();
+        List<Integer> centers;
+        try (MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setOption(2).setVerbose(false).setJmxName(name))) {
+            assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(name)));
+            clusterer.addListener(received::add);
+            centers = clusterer.mean_shift(m, -1, 0.1F, 100);
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(name), "Clusterings"));
+            assertEquals(0F, ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(name), "LastBandwidthMargin"));
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(name)));
+
+        assertEquals(1, received.size());
+        MeanShiftMetrics metrics = received.get(0);
+        assertEquals(200, metrics.getPoints());
+        assertEquals(200, metrics.getSeeds());
+        assertEquals(0, metrics.getBandwidthMargin(), 0); // from all the lines
+        int seeds = 0;
+        for (int count : metrics.getIterationHistogram()) {
+            seeds += count;
+        }
+        assertEquals(200, seeds);
+        seeds = 0;
+        for (int count : metrics.getNeighborhoodSizeHistogram()) {
+            seeds += count;
+        }
+        assertEquals(200, seeds);
+        assertTrue(metrics.getMinNeighborhoodSize() >= 1);
+        assertEquals(centers.size(), metrics.getCenters());
+        assertTrue(metrics.getCentersBeforeSuppression() >= metrics.getCenters());
+        assertTrue(metrics.getTotalNanos() >= metrics.getConvergenceNanos());
+        assertTrue(metrics.getAllocatedBytes() >= -1);
+
+        // a seed converging right at the last allowed iteration did not stop on the limit
+        int longest = metrics.getIterationHistogram().length - 1;
+        assertEquals(0, metrics.getMaxIterationsHits());
+        try (MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setOption(2).setVerbose(false))) {
+            clusterer.addListener(received::add);
+            clusterer.mean_shift(m, -1, 0.1F, longest);
+            if (longest > 0) {
+                clusterer.mean_shift(m, -1, 0.1F, longest - 1);
+            }
+        }
+        assertEquals(0, received.get(1).getMaxIterationsHits());
+        if (longest > 0) {
+            assertEquals(metrics.getIterationHistogram()[longest], received.get(2).getMaxIterationsHits());
+        }
+    }
+
+    @Test
+    public void testSampledBandwidth() {
+        Matrix m = clusteredDistanceMatrix(1000, 4, 9);
+        float exact;
+        try (MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setVerbose(false))) {
+            MeanShiftClusterer.BandwidthEstimate estimate = clusterer.estimateBandwidth(m, 0.2, -1);
+            assertEquals(0, estimate.margin, 0);
+            exact = estimate.bandwidth;
+            assertEquals(exact, clusterer.estimateBandwidth(m, 0.2, 1000).bandwidth, 0); // all the lines
+        }
+        final List<MeanShiftMetrics> received = new ArrayList<>();
+        for (int option : new int[] { 0, 2 }) {
+            MeanShiftConfig config = new MeanShiftConfig().setOption(option).setBandwidthSampleSize(200).setBandwidthSampleSeed(5).setVerbose(false);
+            try (MeanShiftClusterer clusterer = new MeanShiftClusterer(config)) {
+                MeanShiftClusterer.BandwidthEstimate estimate = clusterer.estimateBandwidth(m, 0.2, 200);
+                assertTrue(estimate.margin > 0 && estimate.margin < exact / 10);
+                assertEquals(exact, estimate.bandwidth, estimate.margin);
+                assertEquals(estimate.bandwidth, clusterer.estimateBandwidth(m, 0.2), 0); // the same sample
+
+                clusterer.addListener(received::add);
+                clusterer.mean_shift(m, 300, 0.2F, 100);
+                assertEquals(estimate.bandwidth, received.get(received.size() - 1).getBandwidth(), 0);
+                assertEquals(estimate.margin, received.get(received.size() - 1).getBandwidthMargin(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testCenterDrift() {
+        Matrix reference = clusteredDistanceMatrix(300, 4, 13).copy(StorageType.HEAP);
+        MeanShiftClusterer.CenterDrift drift = MeanShiftClusterer.computeCenterDrift(reference, Arrays.asList(0, 5),
+            reference.copy(StorageType.QUANTIZED_8), Arrays.asList(0, 7));
+        assertTrue(drift.maxValueError > 0);
+        assertEquals(1, drift.identical);
+        float expected = Math.min(reference.getValue(7, 0), reference.getValue(7, 5));
+        assertEquals(expected, drift.maxDrift, 0);
+        assertEquals(expected / 2, drift.meanDrift, 0);
+        drift = MeanShiftClusterer.computeCenterDrift(reference, Collections.<Integer>emptyList(), reference, Arrays.asList(0, 7));
+        assertEquals(0, drift.identical);
+        assertTrue(Float.isNaN(drift.meanDrift) && Float.isNaN(drift.maxDrift));
+
+        try (MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setVerbose(false))) {
+            List<Integer> referenceCenters = clusterer.mean_shift(reference, -1, 0.1F, 100);
+            float maxDistance = 0;
+            for (int i = 0; i < reference.getLineNumber(); i++) {
+                for (int j = 0; j < reference.getColumnNumber(); j++) {
+                    maxDistance = Math.max(maxDistance, reference.getValue(i, j));
+                }
+            }
+            for (StorageType storageType : new StorageType[] { StorageType.HEAP, StorageType.FLOAT16, StorageType.QUANTIZED_16, StorageType.QUANTIZED_8 }) {
+                Matrix approximation = reference.copy(storageType);
+                List<Integer> centers = clusterer.mean_shift(approximation, -1, 0.1F, 100);
+                drift = MeanShiftClusterer.computeCenterDrift(reference, referenceCenters, approximation, centers);
+                if (storageType == StorageType.HEAP) {
+                    assertEquals(0, drift.maxValueError, 0);
+                    assertEquals(referenceCenters.size(), drift.identical);
+                    assertEquals(0, drift.maxDrift, 0);
+                } else {
+                    // FLOAT16 keeps 11 significant bits, QUANTIZED_n splits the range of the values in 2^n - 1 steps
+                    float step = storageType == StorageType.FLOAT16 ? maxDistance / 1024
+                        : maxDistance / (storageType == StorageType.QUANTIZED_8 ? 255 : 65535);
+                    assertTrue(drift.maxValueError > 0 && drift.maxValueError <= step);
+                    assertTrue(drift.identical > 0 && drift.identical <= centers.size());
+                    assertTrue(drift.meanDrift <= drift.maxDrift);
+                    assertEquals(drift.identical == centers.size(), drift.maxDrift == 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testClusteringOfVectors() {
+        Random random = new Random(3);
+        float[][] vectors = new float[300][37];
+        for (float[] vector : vectors) {
+            for (int k = 0; k < vector.length; k++) {
+                vector[k] = (float) random.nextGaussian();
+            }
+        }
+        for (DistanceMetric metric : DistanceMetric.values()) {
+            VectorDistances distances = new VectorDistances(vectors, metric);
+            Matrix materialized = distances.materialize(StorageType.HEAP, ForkJoinPool.commonPool());
+            Matrix onTheFly = distances.onTheFly();
+            for (int i = 0; i < vectors.length; i++) {
+                for (int j = 0; j < vectors.length; j++) {
+                    double dot = 0, x2 = 0, y2 = 0, squares = 0, absolutes = 0;
+                    for (int k = 0; k < vectors[i].length; k++) {
+                        double x = vectors[i][k], y = vectors[j][k];
+                        dot += x * y;
+                        x2 += x * x;
+                        y2 += y * y;
+                        squares += (x - y) * (x - y);
+                        absolutes += Math.abs(x - y);
+                    }
+                    double expected = i == j ? 0 : metric == DistanceMetric.EUCLIDEAN ? Math.sqrt(squares)
+                        : metric == DistanceMetric.COSINE ? 1 - dot / Math.sqrt(x2 * y2) : absolutes;
+                    assertEquals(expected, materialized.getValue(i, j), 1e-4 * Math.max(1, expected));
+                    assertEquals(materialized.getValue(i, j), onTheFly.getValue(i, j), 0);
+                }
+            }
+        }
+
+        float[][] points = clusteredPoints(300, 4, 1);
+        try (MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setOption(2).setThreads(3).setVerbose(false))) {
+            List<Integer> expected = sorted(clusterer.mean_shift(points, DistanceMetric.EUCLIDEAN, StorageType.HEAP, -1, 0.1F, 100));
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, sorted(clusterer.mean_shift(points, DistanceMetric.EUCLIDEAN, null, -1, 0.1F, 100)));
+        }
+    }
+
+    @Test
+    public void testKdTreeFindsTheNeighborsOfTheMatrix() {
+        Random random = new Random(5);
+        for (int dimensions : new int[] { 1, 3, 8 }) {
+            float[] vectors = new float[1000 * dimensions];
+            for (int k = 0; k < vectors.length; k++) {
+                vectors[k] = (float) random.nextGaussian();
+            }
+            for (DistanceMetric metric : DistanceMetric.values()) {
+                VectorDistances distances = new VectorDistances(vectors, dimensions, metric);
+                KdTree tree = new KdTree(distances);
+                for (int i = 0; i < distances.size(); i += 7) {
+                    float radius = distances.distance(i, (i * 31 + 1) % distances.size());
+                    List<Integer> expected = new ArrayList<>();
+                    for (int j = 0; j < distances.size(); j++) {
+                        if (distances.distance(i, j) < radius) {
+                            expected.add(j);
+                        }
+                    }
+                    int[] found = tree.neighborsWithinRadius(i, radius);
+                    assertEquals(expected.size(), found.length);
+                    assertEquals(found.length, tree.countWithinRadius(i, radius));
+                    for (int k = 0; k < found.length; k++) {
+                        assertEquals((int) expected.get(k), found[k]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBitsetNeighborRows() {
+        Random random = new Random(7);
+        int n = 500;
+        float[][] lines = new float[n][n];
+        int[] counts = new int[n + 1];
+        int[] listCounts = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            float radius = i % 3 == 0 ? 0.01F : 0.5F; // mixes sparse and dense rows
+            for (int j = 0; j < n; j++) {
+                lines[i][j] = random.nextFloat();
+                if (lines[i][j] < radius) {
+                    counts[i + 1]++;
+                }
+            }
+            listCounts[i + 1] = counts[i + 1];
+        }
+        NeighborIndex adaptive = NeighborIndex.fromCounts(counts, true);
+        NeighborIndex lists = NeighborIndex.fromCounts(listCounts, false);
+        for (int i = 0; i < n; i++) {
+            float radius = i % 3 == 0 ? 0.01F : 0.5F;
+            adaptive.fillRow(i, lines[i], n, radius);
+            lists.fillRow(i, lines[i], n, radius);
+        }
+        assertTrue(adaptive.getDenseRowNumber() > 0 && adaptive.getDenseRowNumber() < n);
+        assertEquals(0, lists.getDenseRowNumber());
+        assertEquals(lists.getTotalSize(), adaptive.getTotalSize());
+        int[] expected = new int[n];
+        int[] found = new int[n];
+        for (int i = 0; i < n; i++) {
+            assertEquals(lists.size(i), adaptive.size(i));
+            int size = lists.copyNeighbors(i, expected);
+            assertEquals(size, adaptive.copyNeighbors(i, found));
+            assertArrayEquals(Arrays.copyOf(expected, size), Arrays.copyOf(found, size));
+            for (int j = i % 5; j < n; j += 37) {
+                assertEquals(lists.intersectionSize(i, j), adaptive.intersectionSize(i, j));
+            }
+        }
+
+        float[][] points = clusteredPoints(400, 3, 2);
+        for (StorageType storageType : new StorageType[] { StorageType.HEAP, null }) {
+            List<Integer> centers;
+            try (MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setBitsetNeighbors(false).setVerbose(false))) {
+                centers = sorted(clusterer.mean_shift(points, DistanceMetric.EUCLIDEAN, storageType, -1, 0.5F, 100));
+            }
+            try (MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setBitsetNeighbors(true).setVerbose(false))) {
+                assertEquals(centers, sorted(clusterer.mean_shift(points, DistanceMetric.EUCLIDEAN, storageType, -1, 0.5F, 100)));
+            }
+        }
+    }
+
+    @Test
+    public void testWorkersInOtherJvms() throws Exception {
+        Matrix m = clusteredDistanceMatrix(400, 5, 11);
+        File file = folder.newFile("m.bin");
+        m.saveBinary(file);
+
+        List<Process> processes = new ArrayList<>();
+        try {
+            List<InetSocketAddress> workers = new ArrayList<>();
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            for (int w = 0; w < 3; w++) {
+                Process process = new ProcessBuilder(java, "-Dmeanshift.quiet=true", "-Dmeanshift.workerBaseDir=" + folder.getRoot(),
+                    "-cp", System.getProperty("java.class.path"),
+                    MeanShiftWorker.class.getName(), "0", "2", "2").redirectErrorStream(true).start();
+                processes.add(process);
+                String line = new BufferedReader(new InputStreamReader(process.getInputStream())).readLine();
+                assertNotNull(line);
+                workers.add(new InetSocketAddress("127.0.0.1", Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1))));
+            }
+            try (MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setOption(0).setVerbose(false))) {
+                List<Integer> expected = sorted(clusterer.mean_shift(m, -1, 0.1F, 100));
+                MeanShiftCoordinator coordinator = new MeanShiftCoordinator(clusterer, workers);
+                assertEquals(expected, sorted(coordinator.mean_shift(file, -1, 0.1F, 100)));
+                // connections are closed after each clustering, and workers accept the next one
+                assertEquals(expected, sorted(coordinator.mean_shift(file, -1, 0.1F, 100)));
+
+                File outside = File.createTempFile("outside", ".bin");
+                try {
+                    m.saveBinary(outside);
+                    coordinator.mean_shift(outside, -1, 0.1F, 100);
+                    fail("matrix outside of the base directory read");
+                } catch (IOException e) {
+                    assertTrue(e.getMessage().contains("outside of the base directory"));
+                } finally {
+                    outside.delete();
+                }
+
+                // a request of more seeds than points is refused before they are allocated
+                try (Socket socket = new Socket(workers.get(0).getAddress(), workers.get(0).getPort())) {
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    out.writeInt(MeanShiftWorker.MAGIC);
+                    out.writeUTF(file.getPath());
+                    out.writeFloat(1);
+                    out.writeInt(100);
+                    out.writeInt(Integer.MAX_VALUE);
+                    out.flush();
+                    assertEquals(-1, socket.getInputStream().read());
+                }
+                assertEquals(expected, sorted(coordinator.mean_shift(file, -1, 0.1F, 100)));
+
+                // a worker is still served while another connection to it stays open, as of a second coordinator
+                try (Socket idle = new Socket(workers.get(0).getAddress(), workers.get(0).getPort())) {
+                    assertEquals(expected, sorted(coordinator.setTimeouts(10000, 60000).mean_shift(file, -1, 0.1F, 100)));
+                }
+
+                try {
+                    new MeanShiftCoordinator(clusterer, Arrays.asList(workers.get(0), workers.get(1), new InetSocketAddress("127.0.0.1", workers.get(0).getPort())));
+                    fail("duplicated worker accepted");
+                } catch (IllegalArgumentException e) {
+                    assertTrue(e.getMessage().contains("distinct"));
+                }
+            }
+
+            // a worker which never replies
+            try (ServerSocket silent = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+                 MeanShiftClusterer clusterer = new MeanShiftClusterer(new MeanShiftConfig().setVerbose(false))) {
+                MeanShiftCoordinator coordinator = new MeanShiftCoordinator(clusterer,
+                    Collections.singletonList(new InetSocketAddress(InetAddress.getLoopbackAddress(), silent.getLocalPort())));
+                coordinator.setTimeouts(1000, 200).mean_shift(file, -1, 0.1F, 100);
+                fail("silent worker not timed out");
+            } catch (SocketTimeoutException e) {
+                // expected
+            }
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+}
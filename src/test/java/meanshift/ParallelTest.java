@@ -1,18 +1,32 @@
 package meanshift;
 
 import static org.junit.Assert.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntToDoubleFunction;
 import org.junit.Test;
 import util.MathUtils;
 import util.parallel.Action;
 import util.parallel.Function;
+import util.parallel.IntAction;
+import util.parallel.IntRangeAction;
+import util.parallel.LongRangeAction;
 import util.parallel.Parallel;
+import util.parallel.Schedule;
+import util.parallel.Summation;
 
 
 public class ParallelTest {
@@ -73,4 +87,112 @@ public class ParallelTest {
 
         assertEquals(4, map.keySet().size());
     }
+
+    @Test
+    public void testForkJoin() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        final AtomicLongArray visits = new AtomicLongArray(1000);
+        Parallel.For(0, 1000, pool, 1, new Action<Integer>() {
+            public void doAction(Integer element) {
+                visits.incrementAndGet(element);
+            }
+        });
+        Parallel.For(0L, 1000L, (ExecutorService) pool, new Action<Long>() {
+            public void doAction(Long element) {
+                visits.incrementAndGet(element.intValue());
+            }
+        });
+        for (int i = 0; i < visits.length(); i++) {
+            assertEquals(2, visits.get(i));
+        }
+
+        Collection<Integer> result = Parallel.ForEach(MathUtils.rangeIterable(10000), pool, 7, new Function<Integer, Integer>() {
+            public Integer apply(Integer i) {
+                return i % 3 == 0 ? null : i;
+            }
+        });
+        Iterator<Integer> values = result.iterator();
+        for (int i = 0; i < 10000; i++) {
+            if (i % 3 != 0) {
+                assertEquals(i, values.next().intValue());
+            }
+        }
+        assertFalse(values.hasNext());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testPrimitiveFor() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(3);
+        final AtomicLongArray visits = new AtomicLongArray(1001);
+        Parallel.For(0, 1001, executorService, new IntAction() {
+            public void doAction(int i) {
+                visits.incrementAndGet(i);
+            }
+        });
+        for (Schedule schedule : Schedule.values()) {
+            for (int chunkSize : new int[] { 0, 1, 10, 5000 }) {
+                Parallel.For(0, 1001, executorService, schedule, chunkSize, new IntRangeAction() {
+                    public void doAction(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            visits.incrementAndGet(i);
+                        }
+                    }
+                });
+            }
+        }
+        Parallel.ForLong(0L, 1001L, new ForkJoinPool(2), Schedule.STATIC, 0L, new LongRangeAction() {
+            public void doAction(long from, long to) {
+                for (long i = from; i < to; i++) {
+                    visits.incrementAndGet((int) i);
+                }
+            }
+        });
+        for (int i = 0; i < visits.length(); i++) {
+            assertEquals(2 + 2 * 4, visits.get(i));
+        }
+        executorService.shutdown();
+    }
+
+    @Test
+    public void testSum() throws Exception {
+        final float[] terms = new float[100000];
+        Random random = new Random(3);
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = random.nextFloat() * (random.nextBoolean() ? 1e-3F : 1e3F);
+        }
+        IntToDoubleFunction term = new IntToDoubleFunction() {
+            public double applyAsDouble(int i) {
+                return terms[i];
+            }
+        };
+        double exact = 0;
+        for (float value : terms) {
+            exact += value;
+        }
+        for (Summation summation : Summation.values()) {
+            double serial = Parallel.sum(0, terms.length, null, summation, term);
+            assertEquals(exact, serial, Math.abs(exact) * 1e-12);
+            for (int threads : new int[] { 1, 3, 8 }) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                double parallel = Parallel.sum(0, terms.length, pool, summation, term);
+                if (summation == Summation.LOCAL) {
+                    assertEquals(serial, parallel, Math.abs(exact) * 1e-12);
+                } else {
+                    assertEquals(Double.doubleToLongBits(serial), Double.doubleToLongBits(parallel));
+                }
+                pool.shutdown();
+            }
+        }
+        assertEquals(0, Parallel.sum(5, 5, null, Summation.PAIRWISE, term), 0);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Integer> multiples = Parallel.reduce(0, 1000, executorService, 7, ArrayList<Integer>::new,
+            (list, i) -> { if (i % 3 == 0) list.add(i); }, List::addAll);
+        assertEquals(334, multiples.size());
+        for (int k = 0; k < multiples.size(); k++) {
+            assertEquals(3 * k, multiples.get(k).intValue());
+        }
+        executorService.shutdown();
+    }
 }